@@ -0,0 +1,213 @@
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Block oriented input for the evaluator, the lookahead is read straight out of a ByteBuffer
+ * that is refilled (or remapped) only when it runs out
+ */
+
+final class ByteInput {
+    // Size of the direct buffer used when reading from a channel
+    static final int BLOCK_SIZE = 1 << 16;
+    // Size of each mapped region when reading a file in memory mapped mode
+    static final long MAP_SIZE = 1L << 30;
+
+    private ByteBuffer buf;
+
+    // Channel mode (ch != null)
+    private final ReadableByteChannel ch;
+    // Flushed before every read from the channel, so pending output is not held back while the
+    // read blocks (null if there is nothing to flush)
+    private Flushable beforeRead;
+    // Memory mapped mode (file != null)
+    private final FileChannel file;
+    private long mapStart;
+
+    // Bytes consumed before the current buffer contents
+    private long base;
+    // Offset of a wrapped buffer in the whole input
+    private long start;
+    private boolean eof;
+
+    private ByteInput(ByteBuffer buf, ReadableByteChannel ch, FileChannel file) {
+        this.buf = buf;
+        this.ch = ch;
+        this.file = file;
+        mapStart = 0;
+        base = 0;
+        start = 0;
+        eof = false;
+    }
+
+    // Read from any channel through a direct buffer, BLOCK_SIZE bytes at a time
+    static ByteInput fromChannel(ReadableByteChannel ch) {
+        ByteBuffer buf = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        buf.flip();
+        return new ByteInput(buf, ch, null);
+    }
+
+    // Same, for an interactive channel whose results are written to out (a connection of the server)
+    static ByteInput fromChannel(ReadableByteChannel ch, Flushable out) {
+        ByteInput in = fromChannel(ch);
+        in.beforeRead = out;
+        return in;
+    }
+
+    // Map a file region by region (regions are MAP_SIZE bytes long)
+    static ByteInput mapFile(Path path) throws IOException {
+        FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+        ByteInput in = new ByteInput(ByteBuffer.allocate(0), null, file);
+        in.remap(0);
+        return in;
+    }
+
+    // Read from a buffer that already holds the whole input
+    static ByteInput wrap(ByteBuffer buf) {
+        return new ByteInput(buf, null, null);
+    }
+
+    // Read from a buffer holding part of the input, that starts at the given offset (positions
+    // are reported as offsets in the whole input)
+    static ByteInput wrap(ByteBuffer buf, long start) {
+        ByteInput in = new ByteInput(buf, null, null);
+        in.start = start;
+        in.base = start;
+        return in;
+    }
+
+    // Return the next byte (0 - 255) or -1 at the end of the input
+    int next() throws IOException {
+        if (buf.hasRemaining())
+            return buf.get() & 0xff;
+        return refill() ? buf.get() & 0xff : -1;
+    }
+
+    // Number of bytes consumed so far
+    long position() {
+        return base + buf.position();
+    }
+
+    // Start over from the beginning of a wrapped buffer
+    void rewind() {
+        buf.rewind();
+        base = start;
+        eof = false;
+    }
+
+    ByteBuffer buffer() {
+        return buf;
+    }
+
+    // Continue reading at the given index of the current buffer
+    void skipTo(int index) {
+        buf.position(index);
+    }
+
+    // Make sure the line of the byte last returned by next() is complete in the buffer, and return
+    // the index of its newline (or the buffer limit if the input ends first). The line starts at
+    // buffer().position() - 1. Returns -1 if the line does not fit in the buffer
+    int lineEnd() throws IOException {
+        int from = buf.position() - 1;
+        int scanned = from;
+        while (true) {
+            int newline = ByteScan.indexOf(buf, (byte) '\n', scanned, buf.limit());
+            if (newline >= 0)
+                return newline;
+            scanned = buf.limit();
+            if (eof)
+                return scanned;
+
+            if (ch != null) {
+                if (from == 0 && buf.limit() == buf.capacity())
+                    return -1;
+                // Move the line to the start of the buffer and read more after it
+                base += from;
+                buf.position(from);
+                buf.compact();
+                if (read() < 0)
+                    eof = true;
+                buf.flip();
+            }
+            else if (file != null) {
+                if (mapStart + buf.limit() >= file.size())
+                    return scanned;
+                if (from == 0)
+                    return -1;
+                // Map the next region from the start of the line
+                remap(mapStart + from);
+            }
+            else
+                return scanned;
+            buf.position(1);
+            scanned -= from;
+            from = 0;
+        }
+    }
+
+    // Skip the rest of the current line and its newline, and return the byte after it (or -1 at the
+    // end of the input)
+    int skipLine() throws IOException {
+        while (true) {
+            int newline = ByteScan.indexOf(buf, (byte) '\n', buf.position(), buf.limit());
+            if (newline >= 0) {
+                buf.position(newline + 1);
+                return next();
+            }
+            buf.position(buf.limit());
+            if (!refill())
+                return -1;
+        }
+    }
+
+    void close() throws IOException {
+        if (ch != null)
+            ch.close();
+        if (file != null)
+            file.close();
+    }
+
+    private boolean refill() throws IOException {
+        if (eof)
+            return false;
+        if (ch != null) {
+            base += buf.position();
+            buf.clear();
+            int n;
+            do {
+                n = read();
+            } while (n == 0);
+            buf.flip();
+            if (n < 0)
+                eof = true;
+        }
+        else if (file != null)
+            remap(mapStart + buf.position());
+        else
+            eof = true;
+        return buf.hasRemaining();
+    }
+
+    private int read() throws IOException {
+        if (beforeRead != null)
+            beforeRead.flush();
+        return ch.read(buf);
+    }
+
+    private void remap(long start) throws IOException {
+        long size = Math.min(MAP_SIZE, file.size() - start);
+        base = start;
+        mapStart = start;
+        if (size <= 0) {
+            buf = ByteBuffer.allocate(0);
+            eof = true;
+        }
+        else {
+            buf = file.map(FileChannel.MapMode.READ_ONLY, start, size);
+        }
+    }
+}
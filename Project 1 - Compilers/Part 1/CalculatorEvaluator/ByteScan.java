@@ -0,0 +1,40 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Searches byte buffers eight bytes at a time, using long arithmetic on whole words instead of a
+ * comparison per byte
+ */
+
+final class ByteScan {
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW_BITS = 0x7f7f7f7f7f7f7f7fL;
+
+    private ByteScan() {
+    }
+
+    // Index of the first occurrence of b in buf[from, to), or -1 if there is none
+    static int indexOf(ByteBuffer buf, byte b, int from, int to) {
+        long pattern = (b & 0xffL) * ONES;
+        boolean littleEndian = buf.order() == ByteOrder.LITTLE_ENDIAN;
+        int i = from;
+        for (; i <= to - 8; i += 8) {
+            long found = zeroBytes(buf.getLong(i) ^ pattern);
+            if (found != 0) {
+                int bit = littleEndian ? Long.numberOfTrailingZeros(found) : Long.numberOfLeadingZeros(found);
+                return i + (bit >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (buf.get(i) == b)
+                return i;
+        }
+        return -1;
+    }
+
+    // Set the high bit of every byte of word that is zero, and clear all other bits. No carry
+    // crosses a byte, so the result is exact and the first match can be taken from either end
+    private static long zeroBytes(long word) {
+        return ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Benchmarks of the evaluators on typical inputs. For every scenario and evaluator it reports the
+ * throughput (ops/s, an op being one pass over the scenario input) and the allocation per op, as
+ * measured by the allocated bytes counter of the benchmark thread. The columns scenario compares
+ * the two ways of evaluating a compiled expression for many rows of variable values
+ */
+
+public class CalculatorBench {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURE_ROUNDS = 5;
+    private static final long ROUND_NANOS = 1_000_000_000L;
+
+    // Evaluators being compared, the table driven one uses Part 1/LookupTable
+    private static final String[] EVALUATORS = { "recursive", "iterative", "table" };
+    private static final String TABLE_FILE = "../LookupTable";
+
+    // Discards the batch results
+    private static final OutputStream NULL_OUTPUT = new OutputStream() {
+        public void write(int b) {}
+        public void write(byte[] b, int off, int len) {}
+    };
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static LL1Table table;
+
+    // Volatile sink, so results are not optimized away
+    private static volatile long sink;
+
+    // 1+2+3+...
+    private static String flatChain(int operators) {
+        StringBuilder sb = new StringBuilder("1");
+        for (int i = 0; i < operators; i++)
+            sb.append(i % 2 == 0 ? '+' : '-').append((char) ('0' + i % 10));
+        return sb.toString();
+    }
+
+    // ((((...1+1...))))
+    private static String deepParens(int depth) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++)
+            sb.append('(');
+        sb.append("1+1");
+        for (int i = 0; i < depth; i++)
+            sb.append(')');
+        return sb.toString();
+    }
+
+    // 9*8/2*7/3+... terms of multiplications and divisions (never by zero)
+    private static String mixedTerms(int terms) {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < terms; i++) {
+            if (i > 0)
+                sb.append(random.nextBoolean() ? '+' : '-');
+            sb.append((char) ('1' + random.nextInt(9)));
+            for (int j = 0; j < 4; j++)
+                sb.append(random.nextBoolean() ? '*' : '/').append((char) ('1' + random.nextInt(9)));
+        }
+        return sb.toString();
+    }
+
+    // Valid prefix that ends in a parse error
+    private static String invalid() {
+        return "1+2*(3-4)/5+x";
+    }
+
+    // Many short lines, about one in ten invalid
+    private static String batch(int lines) {
+        Random random = new Random(7);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            sb.append((char) ('0' + random.nextInt(10)));
+            int ops = random.nextInt(6);
+            for (int j = 0; j < ops; j++)
+                sb.append("+-*".charAt(random.nextInt(3))).append((char) ('0' + random.nextInt(10)));
+            if (random.nextInt(10) == 0)
+                sb.append(')');
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    // One op: evaluate the whole input once
+    private static long op(CalculatorEval eval, ByteInput in, ResultWriter out, boolean batch)
+            throws IOException {
+        in.rewind();
+        eval.reset(in);
+        if (batch)
+            return eval.eval_batch(out);
+        try {
+            return eval.eval();
+        }
+        catch (ParseError e) {
+            return -1;
+        }
+    }
+
+    // One pass over the input of a scenario, returning a result for the sink
+    private interface Op {
+        long run() throws IOException;
+    }
+
+    private static void measure(String scenario, String evaluator, Op op) throws IOException {
+        long ops = 0;
+        long nanos = 0;
+        long allocated = 0;
+        long thread = Thread.currentThread().getId();
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURE_ROUNDS; round++) {
+            long roundOps = 0;
+            long alloc = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            long end = start + ROUND_NANOS;
+            long now;
+            do {
+                sink += op.run();
+                roundOps++;
+            } while ((now = System.nanoTime()) < end);
+            if (round >= WARMUP_ROUNDS) {
+                ops += roundOps;
+                nanos += now - start;
+                allocated += threads.getThreadAllocatedBytes(thread) - alloc;
+            }
+        }
+        double secs = nanos / 1e9;
+        System.out.printf("%-12s %-10s %14.1f ops/s %12.1f B/op %10.1f MB/s alloc%n",
+                scenario, evaluator, ops / secs, (double) allocated / ops, allocated / secs / 1e6);
+    }
+
+    private static void run(String scenario, String input, boolean batch) throws IOException {
+        byte[] bytes = input.getBytes(StandardCharsets.US_ASCII);
+        for (String evaluator : EVALUATORS) {
+            ByteInput in = ByteInput.wrap(ByteBuffer.wrap(bytes));
+            CalculatorEval eval = new CalculatorEval(in);
+            eval.setIterative(evaluator.equals("iterative"));
+            if (evaluator.equals("table"))
+                eval.setTable(table);
+            ResultWriter out = new ResultWriter(NULL_OUTPUT);
+            measure(scenario, evaluator, () -> op(eval, in, out, batch));
+        }
+    }
+
+    // An expression with variables evaluated for many rows of values, by the compiled expression
+    // called once per row and by the postfix program over columns of values
+    private static void runColumns(String scenario, String expression, int rows) throws IOException {
+        CompiledExpr expr;
+        PostfixProgram program;
+        try {
+            byte[] bytes = expression.getBytes(StandardCharsets.US_ASCII);
+            expr = CalculatorEval.compile(ByteInput.wrap(ByteBuffer.wrap(bytes)));
+            program = CalculatorEval.compile_postfix(ByteInput.wrap(ByteBuffer.wrap(bytes)));
+        }
+        catch (ParseError e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        // Values 1 to 9, so no row divides by zero
+        Random random = new Random(11);
+        int[][] columns = new int[26][rows];
+        for (int[] column : columns) {
+            for (int row = 0; row < rows; row++)
+                column[row] = 1 + random.nextInt(9);
+        }
+        int[] results = new int[rows];
+
+        measure(scenario, "compiled", () -> {
+            int[] vars = new int[26];
+            long sum = 0;
+            for (int row = 0; row < rows; row++) {
+                for (int v = 0; v < vars.length; v++)
+                    vars[v] = columns[v][row];
+                sum += expr.eval(vars);
+            }
+            return sum;
+        });
+        measure(scenario, "postfix", () -> {
+            program.eval(columns, rows, results);
+            return results[rows - 1];
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        table = LL1Table.load(Paths.get(args.length > 0 ? args[0] : TABLE_FILE));
+        System.out.printf("%-12s %-10s %20s %17s %21s%n", "scenario", "evaluator", "throughput", "allocation", "alloc rate");
+        run("flat", flatChain(2_000), false);
+        run("parens", deepParens(500), false);
+        run("mixed", mixedTerms(2_000), false);
+        run("invalid", invalid(), false);
+        run("batch", batch(10_000), true);
+        runColumns("columns", "a*3+(b-c)*d+e*e-2", 1_000_000);
+    }
+}
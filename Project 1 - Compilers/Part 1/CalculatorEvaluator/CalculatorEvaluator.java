@@ -1,31 +1,80 @@
-import java.io.InputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 class CalculatorEval {
 
     private int lookaheadToken;
 
-    private InputStream in;
+    private ByteInput in;
 
-    private CalculatorEval(InputStream in) throws IOException {
+    // Explicit stacks of the iterative evaluator (kept between expressions)
+    private int[] operands;
+    private byte[] operators;
+
+    // Thrown for every parse error, with the position of the error set each time
+    private final ParseError parseError;
+
+    // Optional cache of batch results (null when disabled)
+    private ResultCache cache;
+
+    // Evaluator used by eval(): the table driven one if a table is set, otherwise the iterative
+    // or the recursive one
+    private boolean iterative;
+    private LL1Table table;
+    // Parse stack of the table driven evaluator
+    private int[] symbols;
+
+    CalculatorEval(ByteInput in) throws IOException {
 		this.in = in;
-		lookaheadToken = in.read();
+		lookaheadToken = in.next();
+		operands = new int[64];
+		operators = new byte[64];
+		symbols = new int[64];
+		parseError = new ParseError();
+    }
+
+    // Continue with another input (so one evaluator can be reused, e.g. once per worker thread)
+    void reset(ByteInput in) throws IOException {
+        this.in = in;
+        lookaheadToken = in.next();
+    }
+
+    void setCache(ResultCache cache) {
+        this.cache = cache;
+    }
+
+    void setIterative(boolean iterative) {
+        this.iterative = iterative;
+    }
+
+    void setTable(LL1Table table) {
+        this.table = table;
+    }
+
+    // The error at the current lookahead (the byte read last, or the end of the input)
+    private ParseError error() {
+        return parseError.at(lookaheadToken == -1 ? in.position() : in.position() - 1, lookaheadToken);
     }
 
     private void consume(int symbol) throws IOException, ParseError {
 		if (lookaheadToken != symbol)
-	    	throw new ParseError();
-		lookaheadToken = in.read();
+	    	throw error();
+		lookaheadToken = in.next();
     }
 
     private int evalNum(int num){
         return num - '0';
     }
 
-    private int eval_prog() throws IOException, ParseError {
+    int eval_prog() throws IOException, ParseError {
         int rv = exp();
         if (lookaheadToken != '\n' && lookaheadToken != -1)
-            throw new ParseError();
+            throw error();
         return rv;
     }
 
@@ -33,7 +82,7 @@ class CalculatorEval {
     private int exp() throws IOException, ParseError {
         // Check for invalid tokens to throw exceptions
         if ((lookaheadToken < '0' || lookaheadToken > '9') && lookaheadToken != '(')
-            throw new ParseError();
+            throw error();
 
         return exp2(term());
     }
@@ -43,7 +92,7 @@ class CalculatorEval {
             return interm;
         // Check for invalid tokens to throw exceptions
         if (lookaheadToken != '+' && lookaheadToken != '-')
-            throw new ParseError();
+            throw error();
 
         int rt_val;
         if (lookaheadToken == '+') {
@@ -60,7 +109,7 @@ class CalculatorEval {
     private int term() throws IOException, ParseError {
         // Check for invalid tokens to throw exceptions
         if ((lookaheadToken < '0' || lookaheadToken > '9') && lookaheadToken != '(')
-            throw new ParseError();
+            throw error();
 
         return term2(fact());
     }
@@ -71,7 +120,7 @@ class CalculatorEval {
             return infact;
         // Check for invalid tokens to throw exceptions
         if (lookaheadToken != '*' && lookaheadToken != '/')
-            throw new ParseError();
+            throw error();
 
         int rt_val;
         if (lookaheadToken == '*') {
@@ -88,7 +137,7 @@ class CalculatorEval {
     private int fact() throws IOException, ParseError {
         // Check for invalid tokens to throw exceptions
         if ((lookaheadToken < '0' || lookaheadToken > '9') && lookaheadToken != '(')
-            throw new ParseError();
+            throw error();
 
         int rt_val;
         if (lookaheadToken == '(') {
@@ -104,12 +153,516 @@ class CalculatorEval {
 
     }
 
+    // Same language and results as eval_prog, but evaluated with loops over an operand and an
+    // operator stack instead of recursion, so the Java stack depth does not depend on the input.
+    // As in the recursive version, '*' and '/' are applied as soon as their right factor is read
+    // and '+' and '-' as soon as their right term is complete
+    int eval_iter() throws IOException, ParseError {
+        int nOperands = 0;
+        int nOperators = 0;
+        while (true) {
+            // A factor is expected: any number of '(' followed by a number
+            while (lookaheadToken == '(') {
+                if (nOperators == operators.length)
+                    operators = Arrays.copyOf(operators, nOperators * 2);
+                operators[nOperators++] = '(';
+                lookaheadToken = in.next();
+            }
+            if (lookaheadToken < '0' || lookaheadToken > '9')
+                throw error();
+            if (nOperands == operands.length)
+                operands = Arrays.copyOf(operands, nOperands * 2);
+            operands[nOperands++] = evalNum(lookaheadToken);
+            lookaheadToken = in.next();
+
+            // A factor was read: apply pending operators and close groups until the next
+            // operator is found (then a new factor is expected) or the expression ends
+            while (true) {
+                int top = nOperators > 0 ? operators[nOperators - 1] : -1;
+                if (top == '*' || top == '/') {
+                    nOperands--;
+                    if (top == '*')
+                        operands[nOperands - 1] *= operands[nOperands];
+                    else
+                        operands[nOperands - 1] /= operands[nOperands];
+                    nOperators--;
+                    top = nOperators > 0 ? operators[nOperators - 1] : -1;
+                }
+                if (lookaheadToken == '*' || lookaheadToken == '/')
+                    break;
+
+                if (top == '+' || top == '-') {
+                    nOperands--;
+                    if (top == '+')
+                        operands[nOperands - 1] += operands[nOperands];
+                    else
+                        operands[nOperands - 1] -= operands[nOperands];
+                    nOperators--;
+                    top = nOperators > 0 ? operators[nOperators - 1] : -1;
+                }
+                if (lookaheadToken == '+' || lookaheadToken == '-')
+                    break;
+
+                if (lookaheadToken == ')') {
+                    // The group that is closed counts as a factor of the enclosing term
+                    if (top != '(')
+                        throw error();
+                    nOperators--;
+                    lookaheadToken = in.next();
+                }
+                else if (lookaheadToken == '\n' || lookaheadToken == -1) {
+                    // Unclosed groups are an error, as in fact()
+                    if (nOperators != 0)
+                        throw error();
+                    return operands[0];
+                }
+                else
+                    throw error();
+            }
+
+            if (nOperators == operators.length)
+                operators = Arrays.copyOf(operators, nOperators * 2);
+            operators[nOperators++] = (byte) lookaheadToken;
+            lookaheadToken = in.next();
+        }
+    }
+
+    // Same results as eval_prog, driven by an LL(1) table instead of hand written checks. The parse
+    // stack holds the symbols still expected, and numbers are pushed on the operand stack as they
+    // are matched and combined when an APPLY symbol is popped
+    private int eval_table() throws IOException, ParseError {
+        byte[] cells = table.table;
+        int[] expansions = table.symbols;
+        // Both stacks are kept in locals while parsing and stored back when they grow
+        int[] stack = symbols;
+        int[] values = operands;
+        int nSymbols = 0;
+        int nOperands = 0;
+        int lookahead = lookaheadToken;
+        // The top of the parse stack is kept in symbol instead of being pushed and popped again
+        int symbol = table.start;
+        while (true) {
+            // Leading terminal of the expansion, or the terminal matched by this step (0 for none)
+            int matched = 0;
+            if (symbol >= LL1Table.NONTERMINAL && symbol < LL1Table.APPLY) {
+                int column = lookahead == -1 ? '\n' : lookahead;
+                int offset = (cells[(symbol - LL1Table.NONTERMINAL) << 8 | column] & 0xff) - 1;
+                if (offset < 0)
+                    return table_error(lookahead);
+                int n = expansions[offset];
+                // The expansion starts with a terminal that matches the lookahead (by construction
+                // of the table), so it is consumed right away instead of being pushed
+                matched = expansions[offset + 1];
+                if (n > 0) {
+                    if (nSymbols + n > stack.length)
+                        symbols = stack = Arrays.copyOf(stack, (nSymbols + n) * 2);
+                    int end = offset + 1 + n;
+                    for (int i = offset + 2; i < end; i++)
+                        stack[nSymbols++] = expansions[i];
+                    symbol = expansions[end];
+                }
+                else if (nSymbols > 0)
+                    symbol = stack[--nSymbols];
+                else
+                    symbol = -1;
+            }
+            else {
+                if (symbol >= LL1Table.APPLY) {
+                    nOperands--;
+                    int op = symbol - LL1Table.APPLY;
+                    if (op == '+')
+                        values[nOperands - 1] += values[nOperands];
+                    else if (op == '-')
+                        values[nOperands - 1] -= values[nOperands];
+                    else if (op == '*')
+                        values[nOperands - 1] *= values[nOperands];
+                    else {
+                        // Keep the lookahead in place in case of a division by zero
+                        lookaheadToken = lookahead;
+                        values[nOperands - 1] /= values[nOperands];
+                    }
+                }
+                else if (symbol == LL1Table.NUM ? lookahead < '0' || lookahead > '9' : lookahead != symbol)
+                    return table_error(lookahead);
+                else
+                    matched = symbol;
+                symbol = nSymbols > 0 ? stack[--nSymbols] : -1;
+            }
+            if (matched != 0) {
+                if (matched == LL1Table.NUM) {
+                    if (nOperands == values.length)
+                        operands = values = Arrays.copyOf(values, nOperands * 2);
+                    values[nOperands++] = evalNum(lookahead);
+                }
+                lookahead = in.next();
+            }
+            if (symbol < 0)
+                break;
+        }
+        lookaheadToken = lookahead;
+        if (lookahead != '\n' && lookahead != -1)
+            throw error();
+        return values[0];
+    }
+
+    private int table_error(int lookahead) throws ParseError {
+        lookaheadToken = lookahead;
+        throw error();
+    }
+
+    // Evaluate the current expression with the selected evaluator
+    int eval() throws IOException, ParseError {
+        if (table != null)
+            return eval_table();
+        return iterative ? eval_iter() : eval_prog();
+    }
+
+    // Parse the expression into a tree instead of evaluating it (compile mode). Besides numbers a
+    // factor can also be a variable, a single lower case letter
+    private ExprNode parse_prog() throws IOException, ParseError {
+        ExprNode rv = parse_exp();
+        if (lookaheadToken != '\n' && lookaheadToken != -1)
+            throw error();
+        return rv;
+    }
+
+    private ExprNode parse_exp() throws IOException, ParseError {
+        ExprNode node = parse_term();
+        while (lookaheadToken == '+' || lookaheadToken == '-') {
+            int op = lookaheadToken;
+            consume(op);
+            node = ExprNode.op(op, node, parse_term());
+        }
+        return node;
+    }
+
+    private ExprNode parse_term() throws IOException, ParseError {
+        ExprNode node = parse_fact();
+        while (lookaheadToken == '*' || lookaheadToken == '/') {
+            int op = lookaheadToken;
+            consume(op);
+            node = ExprNode.op(op, node, parse_fact());
+        }
+        return node;
+    }
+
+    private ExprNode parse_fact() throws IOException, ParseError {
+        ExprNode node;
+        if (lookaheadToken == '(') {
+            consume('(');
+            node = parse_exp();
+            consume(')');
+        }
+        else if (lookaheadToken >= '0' && lookaheadToken <= '9') {
+            node = ExprNode.num(evalNum(lookaheadToken));
+            consume(lookaheadToken);
+        }
+        else if (lookaheadToken >= 'a' && lookaheadToken <= 'z') {
+            node = ExprNode.var(lookaheadToken - 'a');
+            consume(lookaheadToken);
+        }
+        else
+            throw error();
+        return node;
+    }
+
+    // Parse the first expression of the input once and compile it, so it can be evaluated
+    // repeatedly (with different variable values) without parsing it again
+    static CompiledExpr compile(ByteInput in) throws IOException, ParseError {
+        return ExprCompiler.compile(new CalculatorEval(in).parse_prog());
+    }
+
+    // Same, compiled to a postfix program that evaluates the expression over columns of variable
+    // values (many rows at a time)
+    static PostfixProgram compile_postfix(ByteInput in) throws IOException, ParseError {
+        return PostfixProgram.compile(new CalculatorEval(in).parse_prog());
+    }
+
+    // Read the values of the variables of a row, integers separated by spaces up to the end of
+    // the line ('a' first, variables without a value are 0). Returns the number of values read,
+    // or -1 at the end of the input
+    static int read_row(ByteInput in, int[] vars) throws IOException, ParseError {
+        int c = in.next();
+        if (c == -1)
+            return -1;
+        Arrays.fill(vars, 0);
+        int n = 0;
+        while (true) {
+            while (c == ' ')
+                c = in.next();
+            if (c == '\n' || c == -1)
+                return n;
+            boolean negative = c == '-';
+            if (negative)
+                c = in.next();
+            if (c < '0' || c > '9' || n == vars.length)
+                throw new ParseError().at(c == -1 ? in.position() : in.position() - 1, c);
+            int value = 0;
+            while (c >= '0' && c <= '9') {
+                value = value * 10 + c - '0';
+                c = in.next();
+            }
+            vars[n++] = negative ? -value : value;
+            if (c != ' ' && c != '\n' && c != -1)
+                throw new ParseError().at(in.position() - 1, c);
+        }
+    }
+
+    // Compile the expression on the first line of the input and evaluate it for the variable
+    // values on each of the following lines, writing one result (or error) per row
+    private static long eval_compiled(ByteInput in, ResultWriter out) throws IOException, ParseError {
+        CompiledExpr expr = compile(in);
+        int[] vars = new int[26];
+        long rows = 0;
+        while (read_row(in, vars) >= 0) {
+            try {
+                out.writeInt(expr.eval(vars));
+            }
+            catch (ArithmeticException e) {
+                out.writeAscii("Division by zero");
+            }
+            out.newLine();
+            rows++;
+        }
+        return rows;
+    }
+
+    // Same as eval_compiled, but all rows are read first, into one column of values per variable,
+    // and evaluated together by a postfix program. If a row divides by zero the rows are evaluated
+    // one at a time instead, so the other rows still get their results
+    private static long eval_columns(ByteInput in, ResultWriter out) throws IOException, ParseError {
+        ExprNode tree = new CalculatorEval(in).parse_prog();
+        int[] vars = new int[26];
+        int[][] columns = new int[vars.length][1024];
+        int rows = 0;
+        while (read_row(in, vars) >= 0) {
+            if (rows == columns[0].length) {
+                for (int v = 0; v < columns.length; v++)
+                    columns[v] = Arrays.copyOf(columns[v], rows * 2);
+            }
+            for (int v = 0; v < vars.length; v++)
+                columns[v][rows] = vars[v];
+            rows++;
+        }
+
+        int[] results = new int[rows];
+        try {
+            PostfixProgram.compile(tree).eval(columns, rows, results);
+            for (int i = 0; i < rows; i++) {
+                out.writeInt(results[i]);
+                out.newLine();
+            }
+        }
+        catch (ArithmeticException e) {
+            ExprNode[] postorder = tree.postorder();
+            for (int i = 0; i < rows; i++) {
+                for (int v = 0; v < vars.length; v++)
+                    vars[v] = columns[v][i];
+                try {
+                    out.writeInt(ExprNode.eval(postorder, vars));
+                }
+                catch (ArithmeticException zero) {
+                    out.writeAscii("Division by zero");
+                }
+                out.newLine();
+            }
+        }
+        return rows;
+    }
+
+    // Evaluate newline separated expressions until the end of the input, writing one result
+    // (or error) per line. Returns the number of lines evaluated
+    long eval_batch(ResultWriter out) throws IOException {
+        long lines = 0;
+        while (lookaheadToken != -1) {
+            eval_next(out);
+            lines++;
+            skip_line();
+        }
+        return lines;
+    }
+
+    // Whether there is another line to evaluate
+    boolean has_line() {
+        return lookaheadToken != -1;
+    }
+
+    // Whether the current line is exactly the given text (without consuming it)
+    boolean at_line(byte[] text) throws IOException {
+        if (lookaheadToken != text[0])
+            return false;
+        int end = in.lineEnd();
+        ByteBuffer buf = in.buffer();
+        int from = buf.position() - 1;
+        if (end - from != text.length)
+            return false;
+        for (int i = 1; i < text.length; i++) {
+            if (buf.get(from + i) != text[i])
+                return false;
+        }
+        return true;
+    }
+
+    // Evaluate the current line and write its result (or error) followed by a newline
+    void eval_next(ResultWriter out) throws IOException {
+        if (cache != null)
+            eval_cached(out);
+        else
+            eval_line(out);
+        out.newLine();
+    }
+
+    // Skip whatever is left of the line (after an error or a command) and the newline itself
+    void skip_line() throws IOException {
+        if (lookaheadToken == '\n')
+            lookaheadToken = in.next();
+        else if (lookaheadToken != -1)
+            lookaheadToken = in.skipLine();
+    }
+
+    // Evaluate the current line and write its result (or error)
+    private void eval_line(ResultWriter out) throws IOException {
+        try {
+            out.writeInt(eval());
+        }
+        catch (ParseError e) {
+            out.writeParseError(e.getOffset(), e.getCharacter());
+        }
+        catch (ArithmeticException e) {
+            out.writeAscii("Division by zero");
+        }
+    }
+
+    // Same as eval_line, but the line is looked up in the cache first and only parsed on a miss
+    private void eval_cached(ResultWriter out) throws IOException {
+        int end = in.lineEnd();
+        if (end < 0) {
+            eval_line(out);
+            return;
+        }
+        ByteBuffer buf = in.buffer();
+        int from = buf.position() - 1;
+        long lineStart = in.position() - 1;
+        int hash = ResultCache.hash(buf, from, end);
+        int entry = cache.find(buf, from, end, hash);
+        if (entry >= 0) {
+            if (cache.kind(entry) == ResultCache.VALUE)
+                out.writeInt(cache.value(entry));
+            else if (cache.kind(entry) == ResultCache.PARSE_ERROR)
+                out.writeParseError(lineStart + cache.value(entry), cache.character(entry));
+            else
+                out.writeAscii("Division by zero");
+            // Continue at the newline, as if the line had been parsed
+            in.skipTo(end);
+            lookaheadToken = in.next();
+            return;
+        }
+
+        // The key is copied before evaluating, since reading past the line may refill the buffer
+        byte[] key = new byte[end - from];
+        for (int i = 0; i < key.length; i++)
+            key[i] = buf.get(from + i);
+        try {
+            int rv = eval();
+            cache.put(key, hash, ResultCache.VALUE, rv, 0);
+            out.writeInt(rv);
+        }
+        catch (ParseError e) {
+            int column = (int) (e.getOffset() - lineStart);
+            cache.put(key, hash, ResultCache.PARSE_ERROR, column, e.getCharacter());
+            out.writeParseError(e.getOffset(), e.getCharacter());
+        }
+        catch (ArithmeticException e) {
+            cache.put(key, hash, ResultCache.DIVISION_BY_ZERO, 0, 0);
+            out.writeAscii("Division by zero");
+        }
+    }
+
 
     public static void main(String[] args) {
 	    try {
-            System.out.println("Please type an arithmetic expression for evaluation:");
-            CalculatorEval evaluate = new CalculatorEval(System.in);
-	        System.out.println(evaluate.eval_prog());
+            // In batch mode every line of the input is evaluated, instead of only the first one.
+            // The iterative evaluator can be used for input that is too deeply nested (or too long)
+            // for the recursive one, and repeated lines can be answered from a cache. The table
+            // driven evaluator reads the grammar from an LL(1) table (like Part 1/LookupTable). In
+            // compile mode the first line is an expression with variables, compiled once and
+            // evaluated for the values on each following line, row by row or (with --columns)
+            // all rows at once
+            boolean batch = false;
+            boolean compile = false;
+            boolean columns = false;
+            boolean iterative = false;
+            String tableFile = null;
+            int cacheSize = 0;
+            int fileArg = 0;
+            for (; fileArg < args.length && args[fileArg].startsWith("--"); fileArg++) {
+                if (args[fileArg].equals("--batch"))
+                    batch = true;
+                else if (args[fileArg].equals("--compile"))
+                    compile = true;
+                else if (args[fileArg].equals("--columns"))
+                    compile = columns = true;
+                else if (args[fileArg].equals("--iterative"))
+                    iterative = true;
+                else if (args[fileArg].equals("--cache") && fileArg + 1 < args.length)
+                    cacheSize = Integer.parseInt(args[++fileArg]);
+                else if (args[fileArg].equals("--table") && fileArg + 1 < args.length)
+                    tableFile = args[++fileArg];
+                else {
+                    System.err.println("Usage: java CalculatorEval [--batch] [--compile | --columns] [--iterative] [--table lookup_table] [--cache N] [file]");
+                    System.exit(1);
+                }
+            }
+
+            // Evaluate a file in memory mapped mode if one is given, otherwise read from stdin
+            ByteInput in;
+            if (args.length > fileArg)
+                in = ByteInput.mapFile(Paths.get(args[fileArg]));
+            else {
+                if (!batch && !compile)
+                    System.out.println("Please type an arithmetic expression for evaluation:");
+                in = ByteInput.fromChannel(Channels.newChannel(System.in));
+            }
+            if (compile) {
+                ResultWriter out = new ResultWriter(new FileOutputStream(FileDescriptor.out));
+                long start = System.nanoTime();
+                long rows;
+                try {
+                    rows = columns ? eval_columns(in, out) : eval_compiled(in, out);
+                }
+                finally {
+                    out.flush();
+                }
+                double secs = (System.nanoTime() - start) / 1e9;
+                System.err.printf("%d rows in %.3f s (%.0f rows/s)%n", rows, secs, rows / secs);
+                in.close();
+                return;
+            }
+            CalculatorEval evaluate = new CalculatorEval(in);
+            evaluate.setIterative(iterative);
+            if (tableFile != null)
+                evaluate.setTable(LL1Table.load(Paths.get(tableFile)));
+            ResultCache cache = null;
+            if (cacheSize > 0) {
+                cache = new ResultCache(cacheSize);
+                evaluate.setCache(cache);
+            }
+
+            if (batch) {
+                ResultWriter out = new ResultWriter(new FileOutputStream(FileDescriptor.out));
+                long start = System.nanoTime();
+                long lines = evaluate.eval_batch(out);
+                out.flush();
+                double secs = (System.nanoTime() - start) / 1e9;
+                long bytes = in.position();
+                System.err.printf("%d lines, %d bytes in %.3f s (%.0f lines/s, %.0f bytes/s)%n",
+                        lines, bytes, secs, lines / secs, bytes / secs);
+                if (cache != null)
+                    System.err.printf("cache: %d hits, %d misses%n", cache.hits(), cache.misses());
+            }
+            else
+	            System.out.println(evaluate.eval());
+	        in.close();
 	    }
 	    catch (IOException e) {
 	        System.err.println(e.getMessage());
@@ -0,0 +1,204 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Checks that the evaluators agree. Random lines, most of them valid expressions and the rest
+ * expressions with a random byte changed, are evaluated by eval_prog, eval_iter, eval_table (with the
+ * LL(1) table of the LookupTable directory, or another one) and (one line in COMPILE_EVERY, since
+ * each one defines a class) compiled, and the first line with different results (value, parse error
+ * position or division by zero) is reported. Expressions too large to be compiled to one method are
+ * checked as well. Expressions with variables are compiled both ways,
+ * and the postfix program evaluated over columns of random values is checked against the compiled
+ * expression called once per row
+ */
+
+public class CalculatorFuzz {
+    private static final int LINES = 200_000;
+    private static final int MAX_DEPTH = 6;
+    private static final int COMPILE_EVERY = 20;
+    private static final int VARIABLE_LINES = 2_000;
+    // More than a block of the postfix program
+    private static final int ROWS = PostfixProgram.BLOCK_SIZE * 3 + 7;
+    // Bytes a changed line may get, besides those of valid expressions
+    private static final String NOISE = "0123456789+-*/() x\n";
+    // Default LL(1) table of eval_table
+    private static final String TABLE_FILE = "../LookupTable";
+
+    private static void expression(Random random, int depth, StringBuilder sb) {
+        term(random, depth, sb);
+        int terms = random.nextInt(3);
+        for (int i = 0; i < terms; i++) {
+            sb.append(random.nextBoolean() ? '+' : '-');
+            term(random, depth, sb);
+        }
+    }
+
+    private static void term(Random random, int depth, StringBuilder sb) {
+        factor(random, depth, sb);
+        int factors = random.nextInt(3);
+        for (int i = 0; i < factors; i++) {
+            sb.append(random.nextBoolean() ? '*' : '/');
+            factor(random, depth, sb);
+        }
+    }
+
+    private static void factor(Random random, int depth, StringBuilder sb) {
+        if (depth < MAX_DEPTH && random.nextInt(4) == 0) {
+            sb.append('(');
+            expression(random, depth + 1, sb);
+            sb.append(')');
+        }
+        else
+            sb.append((char) ('0' + random.nextInt(10)));
+    }
+
+    private static String line(Random random) {
+        StringBuilder sb = new StringBuilder();
+        expression(random, 0, sb);
+        if (random.nextInt(4) == 0) {
+            int at = random.nextInt(sb.length() + 1);
+            char c = NOISE.charAt(random.nextInt(NOISE.length()));
+            switch (random.nextInt(3)) {
+                case 0:
+                    sb.insert(at, c);
+                    break;
+                case 1:
+                    if (at < sb.length())
+                        sb.deleteCharAt(at);
+                    break;
+                default:
+                    if (at < sb.length())
+                        sb.setCharAt(at, c);
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    // Result of evaluating the line, in the form the batch mode prints it. With a table the line is
+    // evaluated by eval_table
+    private static String outcome(String line, boolean iterative, LL1Table table) throws IOException {
+        ByteInput in = ByteInput.wrap(ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII)));
+        CalculatorEval eval = new CalculatorEval(in);
+        eval.setIterative(iterative);
+        eval.setTable(table);
+        try {
+            return Integer.toString(eval.eval());
+        }
+        catch (ParseError e) {
+            return e.getMessage();
+        }
+        catch (ArithmeticException e) {
+            return "Division by zero";
+        }
+    }
+
+    // Same for the compiled expression, with all variables 0. Lines with variables are not valid
+    // for the other evaluators and are not compared. The whole line is parsed before it is
+    // evaluated, so where the other evaluators divide by zero before they find a parse error
+    // later in the line, the compiled one reports the parse error instead
+    private static String compiled(String line, String expected) throws IOException {
+        ByteInput in = ByteInput.wrap(ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII)));
+        try {
+            return Integer.toString(CalculatorEval.compile(in).eval(new int[26]));
+        }
+        catch (ParseError e) {
+            return expected.equals("Division by zero") ? expected : e.getMessage();
+        }
+        catch (ArithmeticException e) {
+            return "Division by zero";
+        }
+    }
+
+    // Compare the postfix program of an expression with variables (a to e) with the compiled
+    // expression. If a row divides by zero the postfix program must fail as well
+    private static void checkColumns(long seed, int i, String line, Random random) throws IOException, ParseError {
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        CompiledExpr expr = CalculatorEval.compile(ByteInput.wrap(ByteBuffer.wrap(bytes)));
+        PostfixProgram program = CalculatorEval.compile_postfix(ByteInput.wrap(ByteBuffer.wrap(bytes)));
+        int[][] columns = new int[26][ROWS];
+        // No zero values, so fewer expressions divide by zero in some row
+        for (int v = 0; v < 5; v++) {
+            for (int row = 0; row < ROWS; row++)
+                columns[v][row] = (random.nextInt(9) + 1) * (random.nextBoolean() ? 1 : -1);
+        }
+        int[] expected = new int[ROWS];
+        boolean zero = false;
+        int[] vars = new int[26];
+        for (int row = 0; row < ROWS; row++) {
+            for (int v = 0; v < 5; v++)
+                vars[v] = columns[v][row];
+            try {
+                expected[row] = expr.eval(vars);
+            }
+            catch (ArithmeticException e) {
+                zero = true;
+            }
+        }
+        int[] actual = new int[ROWS];
+        try {
+            program.eval(columns, ROWS, actual);
+        }
+        catch (ArithmeticException e) {
+            if (zero)
+                return;
+            System.err.printf("seed %d, variable line %d: %s%n  postfix divides by zero, compiled does not%n", seed, i, line);
+            System.exit(1);
+        }
+        for (int row = 0; row < ROWS; row++) {
+            if (zero || actual[row] != expected[row]) {
+                System.err.printf("seed %d, variable line %d: %s%n  row %d: compiled %s, postfix %d%n",
+                        seed, i, line, row, zero ? "divides by zero" : Integer.toString(expected[row]), actual[row]);
+                System.exit(1);
+            }
+        }
+    }
+
+    private static void check(long seed, int i, String line, String expected, String evaluator, String actual) {
+        if (!actual.equals(expected)) {
+            System.err.printf("seed %d, line %d: %s%n  eval_prog: %s%n  %s: %s%n",
+                    seed, i, line, expected, evaluator, actual);
+            System.exit(1);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, ParseError {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+        LL1Table table = LL1Table.load(Paths.get(args.length > 1 ? args[1] : TABLE_FILE));
+        Random random = new Random(seed);
+        for (int i = 0; i < LINES; i++) {
+            String line = line(random);
+            String expected = outcome(line, false, null);
+            check(seed, i, line, expected, "eval_iter", outcome(line, true, null));
+            check(seed, i, line, expected, "eval_table", outcome(line, false, table));
+            if (i % COMPILE_EVERY == 0 && line.indexOf('x') < 0)
+                check(seed, i, line, expected, "compiled", compiled(line, expected));
+        }
+        // Long chains, the longest is too large to compile and falls back to evaluating the tree
+        for (int length : new int[] { 1_000, 100_000 }) {
+            // No zeros, so the whole chain is evaluated
+            StringBuilder sb = new StringBuilder();
+            sb.append((char) ('1' + random.nextInt(9)));
+            while (sb.length() < length)
+                sb.append("+-*/".charAt(random.nextInt(4))).append((char) ('1' + random.nextInt(9)));
+            String line = sb.toString();
+            String expected = outcome(line, true, null);
+            check(seed, -1, "(" + line.length() + " bytes)", expected, "compiled", compiled(line, expected));
+        }
+        // Every digit is made a variable or left as it is
+        for (int i = 0; i < VARIABLE_LINES; i++) {
+            StringBuilder sb = new StringBuilder();
+            expression(random, 0, sb);
+            for (int j = 0; j < sb.length(); j++) {
+                char c = sb.charAt(j);
+                if (c >= '0' && c <= '9' && random.nextBoolean())
+                    sb.setCharAt(j, (char) ('a' + (c - '0') % 5));
+            }
+            checkColumns(seed, i, sb.toString(), random);
+        }
+        System.out.printf("seed %d: %d lines, %d lines with variables, no differences%n", seed, LINES, VARIABLE_LINES);
+    }
+}
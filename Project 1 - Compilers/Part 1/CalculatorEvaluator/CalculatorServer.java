@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Evaluation server, so a client does not pay for JVM startup on every call. A client sends
+ * newline separated expressions over a Unix domain socket (or a localhost TCP port) and reads one
+ * result per line back, in the format of batch mode. The line STATS is answered with the number
+ * of expressions evaluated so far and their p50 / p99 latency
+ */
+
+public class CalculatorServer {
+    private static final byte[] STATS = "STATS".getBytes(StandardCharsets.US_ASCII);
+    // File type bits of unix:mode, and the type of a socket
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFSOCK = 0140000;
+
+    private final boolean iterative;
+    private final LL1Table table;
+
+    // Evaluators not in use by a connection
+    private final ConcurrentLinkedQueue<CalculatorEval> evaluators = new ConcurrentLinkedQueue<>();
+    // Time to evaluate each expression (from its first byte to its result being written)
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private CalculatorServer(boolean iterative, LL1Table table) {
+        this.iterative = iterative;
+        this.table = table;
+    }
+
+    // Whether the file is a Unix domain socket, false where the file type cannot be told
+    private static boolean isSocket(Path path) throws IOException {
+        try {
+            int mode = (Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+            return (mode & S_IFMT) == S_IFSOCK;
+        }
+        catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    // Whether a server accepts connections on the socket
+    private static boolean isListening(SocketAddress address) {
+        try {
+            SocketChannel.open(address).close();
+            return true;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Threads for the connections: a virtual thread each where the runtime has them, otherwise
+    // a cached pool of platform threads
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // Answer the lines of one connection until the client closes it. Results are flushed whenever
+    // the input read so far is used up, before waiting for more
+    private void serve(SocketChannel client) {
+        try (SocketChannel ch = client) {
+            ResultWriter out = new ResultWriter(Channels.newOutputStream(ch));
+            ByteInput in = ByteInput.fromChannel(ch, out);
+            CalculatorEval eval = evaluators.poll();
+            if (eval == null) {
+                eval = new CalculatorEval(in);
+                eval.setIterative(iterative);
+                eval.setTable(table);
+            }
+            else
+                eval.reset(in);
+
+            try {
+                while (eval.has_line()) {
+                    if (eval.at_line(STATS))
+                        writeStats(out);
+                    else {
+                        long start = System.nanoTime();
+                        eval.eval_next(out);
+                        latency.record(System.nanoTime() - start);
+                    }
+                    eval.skip_line();
+                }
+                out.flush();
+            }
+            finally {
+                evaluators.add(eval);
+            }
+        }
+        catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private void writeStats(ResultWriter out) throws IOException {
+        out.writeAscii(String.format("count %d p50 %.1f us p99 %.1f us", latency.count(),
+                latency.percentile(0.50) / 1e3, latency.percentile(0.99) / 1e3));
+        out.newLine();
+    }
+
+    private void run(ServerSocketChannel server, ExecutorService executor) throws IOException {
+        while (true) {
+            SocketChannel client = server.accept();
+            executor.execute(() -> serve(client));
+        }
+    }
+
+    public static void main(String[] args) {
+        boolean iterative = false;
+        String tableFile = null;
+        String socket = null;
+        int port = -1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--iterative"))
+                iterative = true;
+            else if (args[i].equals("--table") && i + 1 < args.length)
+                tableFile = args[++i];
+            else if (args[i].equals("--socket") && i + 1 < args.length)
+                socket = args[++i];
+            else if (args[i].equals("--port") && i + 1 < args.length)
+                port = Integer.parseInt(args[++i]);
+            else {
+                // Unknown option, show the usage
+                socket = null;
+                port = -1;
+                break;
+            }
+        }
+        if ((socket == null) == (port < 0)) {
+            System.err.println("Usage: java CalculatorServer [--iterative] [--table lookup_table] (--socket path | --port N)");
+            System.exit(1);
+        }
+
+        ExecutorService executor = newExecutor();
+        try (ServerSocketChannel server = ServerSocketChannel.open(socket != null ? StandardProtocolFamily.UNIX : StandardProtocolFamily.INET)) {
+            LL1Table table = tableFile != null ? LL1Table.load(Paths.get(tableFile)) : null;
+            SocketAddress address;
+            if (socket != null) {
+                // A socket file left over from an earlier run would make the bind fail, so it is
+                // removed. Anything else at the path, or a socket a server still listens on, is not
+                Path path = Paths.get(socket);
+                address = UnixDomainSocketAddress.of(path);
+                if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                    if (!isSocket(path) || isListening(address))
+                        throw new IOException(socket + ": already exists and is not a stale socket");
+                    Files.delete(path);
+                }
+            }
+            else
+                address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+            server.bind(address);
+            if (socket != null)
+                Paths.get(socket).toFile().deleteOnExit();
+            System.err.println("Listening on " + server.getLocalAddress());
+            new CalculatorServer(iterative, table).run(server, executor);
+        }
+        catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+}
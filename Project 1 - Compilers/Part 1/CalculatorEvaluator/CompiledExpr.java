@@ -0,0 +1,7 @@
+/**
+ * An expression compiled by ExprCompiler, variables are read from vars ('a' is slot 0, 'z' slot 25)
+ */
+
+interface CompiledExpr {
+    int eval(int[] vars);
+}
@@ -0,0 +1,171 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Compiles an expression tree into a hidden class implementing CompiledExpr, so the JIT sees the
+ * whole expression as straight line code in a single method
+ */
+
+final class ExprCompiler {
+    // Constant pool indexes of the generated class (see writeClass)
+    private static final int THIS_CLASS = 2;
+    private static final int OBJECT_CLASS = 4;
+    private static final int INTERFACE_CLASS = 6;
+    private static final int INIT_NAME = 7;
+    private static final int INIT_DESC = 8;
+    private static final int OBJECT_INIT = 10;
+    private static final int EVAL_NAME = 11;
+    private static final int EVAL_DESC = 12;
+    private static final int CODE_ATTR = 13;
+    private static final int POOL_COUNT = 14;
+
+    // Largest method body the class file format allows
+    private static final int MAX_CODE = 65535;
+
+    private ExprCompiler() {}
+
+    static CompiledExpr compile(ExprNode tree) {
+        ExprNode[] postorder = tree.postorder();
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        int maxStack = emit(postorder, code);
+        // Too large to fit in one method (with the return), fall back to interpreting the tree
+        if (code.size() >= MAX_CODE)
+            return vars -> ExprNode.eval(postorder, vars);
+
+        try {
+            byte[] bytes = writeClass(code.toByteArray(), maxStack);
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (CompiledExpr) lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class)).invoke();
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException("Could not define compiled expression", e);
+        }
+    }
+
+    // Append the bytecode of the nodes (given in post order, so the expression value is left on
+    // the operand stack) and return the stack depth it needs
+    private static int emit(ExprNode[] postorder, ByteArrayOutputStream code) {
+        int depth = 0;
+        int maxStack = 0;
+        for (ExprNode node : postorder) {
+            switch (node.kind) {
+                case ExprNode.NUM:
+                    pushInt(node.value, code);
+                    depth++;
+                    break;
+                case ExprNode.VAR:
+                    code.write(0x2b);       // aload_1 (vars)
+                    pushInt(node.value, code);
+                    code.write(0x2e);       // iaload
+                    maxStack = Math.max(maxStack, depth + 2);
+                    depth++;
+                    break;
+                case '+':
+                    code.write(0x60);       // iadd
+                    depth--;
+                    break;
+                case '-':
+                    code.write(0x64);       // isub
+                    depth--;
+                    break;
+                case '*':
+                    code.write(0x68);       // imul
+                    depth--;
+                    break;
+                default:
+                    code.write(0x6c);       // idiv
+                    depth--;
+                    break;
+            }
+            maxStack = Math.max(maxStack, depth);
+        }
+        return maxStack;
+    }
+
+    private static void pushInt(int value, ByteArrayOutputStream code) {
+        if (value <= 5)
+            code.write(0x03 + value);       // iconst_<n>
+        else {
+            code.write(0x10);               // bipush
+            code.write(value);
+        }
+    }
+
+    private static byte[] writeClass(byte[] code, int maxStack) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xcafebabe);
+        out.writeShort(0);
+        out.writeShort(52);
+
+        out.writeShort(POOL_COUNT);
+        utf8(out, "CalculatorExpr");            // 1
+        classRef(out, 1);                       // 2  THIS_CLASS
+        utf8(out, "java/lang/Object");          // 3
+        classRef(out, 3);                       // 4  OBJECT_CLASS
+        utf8(out, "CompiledExpr");              // 5
+        classRef(out, 5);                       // 6  INTERFACE_CLASS
+        utf8(out, "<init>");                    // 7  INIT_NAME
+        utf8(out, "()V");                       // 8  INIT_DESC
+        out.writeByte(12);                      // 9  NameAndType <init>()V
+        out.writeShort(INIT_NAME);
+        out.writeShort(INIT_DESC);
+        out.writeByte(10);                      // 10 OBJECT_INIT, Methodref Object.<init>()V
+        out.writeShort(OBJECT_CLASS);
+        out.writeShort(9);
+        utf8(out, "eval");                      // 11 EVAL_NAME
+        utf8(out, "([I)I");                     // 12 EVAL_DESC
+        utf8(out, "Code");                      // 13 CODE_ATTR
+
+        out.writeShort(0x0031);                 // public final super
+        out.writeShort(THIS_CLASS);
+        out.writeShort(OBJECT_CLASS);
+        out.writeShort(1);
+        out.writeShort(INTERFACE_CLASS);
+        out.writeShort(0);                      // no fields
+
+        out.writeShort(2);
+        // public <init>() { super(); }
+        method(out, INIT_NAME, INIT_DESC, 1, 1,
+                new byte[] { 0x2a, (byte) 0xb7, 0, OBJECT_INIT, (byte) 0xb1 });
+        // public int eval(int[] vars) { return <expression>; }
+        byte[] body = new byte[code.length + 1];
+        System.arraycopy(code, 0, body, 0, code.length);
+        body[code.length] = (byte) 0xac;        // ireturn
+        method(out, EVAL_NAME, EVAL_DESC, maxStack, 2, body);
+
+        out.writeShort(0);                      // no class attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void method(DataOutputStream out, int name, int desc, int maxStack, int maxLocals,
+                               byte[] code) throws IOException {
+        out.writeShort(0x0001);                 // public
+        out.writeShort(name);
+        out.writeShort(desc);
+        out.writeShort(1);
+        out.writeShort(CODE_ATTR);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);                      // no exception table
+        out.writeShort(0);                      // no attributes
+    }
+
+    private static void utf8(DataOutputStream out, String s) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(s);
+    }
+
+    private static void classRef(DataOutputStream out, int name) throws IOException {
+        out.writeByte(7);
+        out.writeShort(name);
+    }
+}
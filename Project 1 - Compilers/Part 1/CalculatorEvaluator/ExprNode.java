@@ -0,0 +1,95 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Syntax tree of an expression, built by CalculatorEval in compile mode
+ */
+
+final class ExprNode {
+    // Leaf kinds, inner nodes use the operator character ('+', '-', '*', '/') as their kind
+    static final int NUM = 'n';
+    static final int VAR = 'v';
+
+    final int kind;
+    // Digit of a NUM leaf or slot of a VAR leaf
+    final int value;
+    final ExprNode left;
+    final ExprNode right;
+
+    private ExprNode(int kind, int value, ExprNode left, ExprNode right) {
+        this.kind = kind;
+        this.value = value;
+        this.left = left;
+        this.right = right;
+    }
+
+    static ExprNode num(int digit) {
+        return new ExprNode(NUM, digit, null, null);
+    }
+
+    static ExprNode var(int slot) {
+        return new ExprNode(VAR, slot, null, null);
+    }
+
+    static ExprNode op(int operator, ExprNode left, ExprNode right) {
+        return new ExprNode(operator, 0, left, right);
+    }
+
+    // Nodes of the tree in post order (operands before their operator), found with an explicit
+    // stack since long '+' chains make the tree as deep as the expression is long
+    ExprNode[] postorder() {
+        ArrayList<ExprNode> order = new ArrayList<>();
+        ArrayDeque<ExprNode> pending = new ArrayDeque<>();
+        ExprNode last = null;
+        ExprNode node = this;
+        while (node != null || !pending.isEmpty()) {
+            if (node != null) {
+                pending.push(node);
+                node = node.left;
+                continue;
+            }
+            ExprNode top = pending.peek();
+            if (top.right != null && last != top.right)
+                node = top.right;
+            else {
+                order.add(top);
+                last = pending.pop();
+            }
+        }
+        return order.toArray(new ExprNode[0]);
+    }
+
+    // Evaluate nodes given in post order with an operand stack (used when an expression is too
+    // large to be compiled)
+    static int eval(ExprNode[] postorder, int[] vars) {
+        int[] stack = new int[postorder.length];
+        int n = 0;
+        for (ExprNode node : postorder) {
+            switch (node.kind) {
+                case NUM:
+                    stack[n++] = node.value;
+                    break;
+                case VAR:
+                    stack[n++] = vars[node.value];
+                    break;
+                case '+':
+                    n--;
+                    stack[n - 1] += stack[n];
+                    break;
+                case '-':
+                    n--;
+                    stack[n - 1] -= stack[n];
+                    break;
+                case '*':
+                    n--;
+                    stack[n - 1] *= stack[n];
+                    break;
+                default:
+                    n--;
+                    stack[n - 1] /= stack[n];
+                    break;
+            }
+        }
+        return stack[0];
+    }
+}
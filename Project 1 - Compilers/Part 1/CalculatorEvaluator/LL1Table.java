@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LL(1) parsing table read from a LookupTable file, stored as a dense table indexed by
+ * nonterminal and lookahead character
+ */
+
+final class LL1Table {
+    // Encoding of the symbols of a production: characters 0 - 127 are terminals, NUM matches any
+    // digit, NONTERMINAL + n is the nth row of the table and APPLY + op applies an operator
+    static final int NUM = 128;
+    static final int NONTERMINAL = 256;
+    static final int APPLY = 512;
+
+    // table[nonterminal << 8 | lookahead] is the offset of the expansion of the cell in symbols,
+    // plus one (0 for an error). The end of the input uses the '\n' column, both stand for '$'
+    final byte[] table;
+    // An expansion is the production of a table cell with its leading nonterminals already expanded
+    // on the same lookahead, so it always starts with the terminal of its column (or is empty) and
+    // the parser does a single step per lookahead instead of one per production. Each expansion is
+    // stored as the number of symbols it pushes, its leading terminal (0 for an empty expansion)
+    // and the symbols to push, in push order (last symbol first)
+    final int[] symbols;
+    // Start symbol (the first row of the table)
+    final int start;
+
+    private LL1Table(byte[] table, int[] symbols) {
+        this.table = table;
+        this.symbols = symbols;
+        start = NONTERMINAL;
+    }
+
+    // Read a table in the format of Part 1/LookupTable: a header row with the terminals and a row
+    // per nonterminal with its productions ("error" for an empty cell, epsilon for the empty string,
+    // "num" for any digit). All rows are separated by lines of dashes and cells by '|'
+    static LL1Table load(Path path) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        String[] header = null;
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            if (line.indexOf('|') < 0)
+                continue;
+            String[] cells = line.split("\\|");
+            for (int i = 0; i < cells.length; i++)
+                cells[i] = cells[i].trim();
+            if (!cells[0].isEmpty())
+                rows.add(cells);
+            else if (header == null && cells.length > 1 && !cells[1].isEmpty())
+                header = cells;
+        }
+        if (header == null || rows.isEmpty())
+            throw new IOException(path + ": no LL(1) table found");
+
+        List<String> nonterminals = new ArrayList<>();
+        for (String[] row : rows)
+            nonterminals.add(row[0]);
+
+        // Productions of each cell, as numbers in the list of productions
+        int[][] cells = new int[rows.size()][128];
+        List<List<Integer>> productions = new ArrayList<>();
+        for (int r = 0; r < rows.size(); r++) {
+            String[] row = rows.get(r);
+            for (int col = 1; col < header.length && col < row.length; col++) {
+                if (row[col].equals("error") || row[col].isEmpty())
+                    continue;
+                productions.add(production(row[col], nonterminals, path));
+                for (int c : columns(header[col], path))
+                    cells[r][c] = productions.size();
+            }
+        }
+
+        // Expand the leading nonterminals of every cell on the lookahead of the cell (identical
+        // expansions are stored once)
+        byte[] table = new byte[rows.size() << 8];
+        List<List<Integer>> expansions = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        List<Integer> symbols = new ArrayList<>();
+        for (int r = 0; r < rows.size(); r++) {
+            for (int c = 0; c < 128; c++) {
+                if (cells[r][c] == 0)
+                    continue;
+                List<Integer> expansion = new ArrayList<>(productions.get(cells[r][c] - 1));
+                int steps = 0;
+                while (!expansion.isEmpty() && expansion.get(0) >= NONTERMINAL && expansion.get(0) < APPLY) {
+                    int next = cells[expansion.get(0) - NONTERMINAL][c];
+                    // A leading nonterminal without a production for the lookahead is an error
+                    // in this cell, and a cycle means the grammar is not LL(1)
+                    if (next == 0 || ++steps > rows.size()) {
+                        expansion = null;
+                        break;
+                    }
+                    expansion.remove(0);
+                    expansion.addAll(0, productions.get(next - 1));
+                }
+                // The evaluator consumes the leading terminal without matching it, so a cell whose
+                // expansion starts with a different terminal is an error as well
+                if (expansion == null || !expansion.isEmpty() && !matches(expansion.get(0), c))
+                    continue;
+                int index = expansions.indexOf(expansion);
+                if (index < 0) {
+                    expansions.add(expansion);
+                    offsets.add(symbols.size());
+                    index = expansions.size() - 1;
+                    symbols.add(Math.max(expansion.size() - 1, 0));
+                    symbols.add(expansion.isEmpty() ? 0 : expansion.get(0));
+                    for (int k = expansion.size() - 1; k > 0; k--)
+                        symbols.add(expansion.get(k));
+                }
+                if (offsets.get(index) >= 255)
+                    throw new IOException(path + ": too many productions");
+                table[r << 8 | c] = (byte) (offsets.get(index) + 1);
+            }
+        }
+
+        int[] pushOrder = new int[symbols.size()];
+        for (int i = 0; i < pushOrder.length; i++)
+            pushOrder[i] = symbols.get(i);
+        return new LL1Table(table, pushOrder);
+    }
+
+    private static boolean matches(int symbol, int c) {
+        if (symbol == NUM)
+            return c >= '0' && c <= '9';
+        return symbol == c;
+    }
+
+    // Lookahead characters of a header cell
+    private static int[] columns(String terminal, Path path) throws IOException {
+        if (terminal.equals("num"))
+            return new int[] { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' };
+        if (terminal.equals("$"))
+            return new int[] { '\n' };
+        if (terminal.length() != 1 || terminal.charAt(0) >= 128)
+            throw new IOException(path + ": unknown terminal " + terminal);
+        return new int[] { terminal.charAt(0) };
+    }
+
+    // Encode the right hand side of a production. A production that starts with an operator (like
+    // "+ term exp2") gets an APPLY after the symbol that follows the operator, so the operator is
+    // applied as soon as its right operand is complete
+    private static List<Integer> production(String rhs, List<String> nonterminals, Path path)
+            throws IOException {
+        List<Integer> symbols = new ArrayList<>();
+        int i = 0;
+        while (i < rhs.length()) {
+            char c = rhs.charAt(i);
+            if (Character.isWhitespace(c) || c == '\u03b5') {
+                i++;
+                continue;
+            }
+            if (!Character.isLetter(c)) {
+                symbols.add((int) c);
+                i++;
+                continue;
+            }
+            int end = i;
+            while (end < rhs.length() && Character.isLetterOrDigit(rhs.charAt(end)))
+                end++;
+            String name = rhs.substring(i, end);
+            if (name.equals("num"))
+                symbols.add(NUM);
+            else if (nonterminals.contains(name))
+                symbols.add(NONTERMINAL + nonterminals.indexOf(name));
+            else
+                throw new IOException(path + ": unknown symbol " + name);
+            i = end;
+        }
+
+        int first = symbols.isEmpty() ? -1 : symbols.get(0);
+        if (symbols.size() >= 2 && (first == '+' || first == '-' || first == '*' || first == '/'))
+            symbols.add(2, APPLY + first);
+        return symbols;
+    }
+}
@@ -0,0 +1,61 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds that can be recorded from many threads. Each power of two
+ * is split in 16 buckets, so a percentile is within about 6% of the recorded value
+ */
+
+final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts;
+
+    LatencyHistogram() {
+        counts = new AtomicLongArray(bucket(Long.MAX_VALUE) + 1);
+    }
+
+    void record(long nanos) {
+        counts.incrementAndGet(bucket(Math.max(nanos, 0)));
+    }
+
+    long count() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++)
+            total += counts.get(i);
+        return total;
+    }
+
+    // The smallest latency that at least the given fraction of the recorded ones do not exceed
+    // (the upper end of its bucket), or 0 if nothing was recorded
+    long percentile(double fraction) {
+        long total = count();
+        if (total == 0)
+            return 0;
+        long rank = Math.max((long) Math.ceil(fraction * total), 1);
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return upperBound(i);
+        }
+        return upperBound(counts.length() - 1);
+    }
+
+    // Values below SUB_BUCKETS have a bucket each, larger ones are bucketed by their highest bit
+    // and the SUB_BITS bits that follow it
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return ((exponent - SUB_BITS + 1) << SUB_BITS) + (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = (bucket >>> SUB_BITS) - 1;
+        long first = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+        return first + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,174 @@
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Evaluates the lines of many (or very large) files in parallel. The input is split in chunks on
+ * line boundaries, each chunk is evaluated in batch mode on a ForkJoinPool by the evaluator of
+ * the worker thread, and the results are written in input order
+ */
+
+public class ParallelCalculator {
+    // Chunk size the input is split into (chunks end after the first newline past this size)
+    private static final long CHUNK_SIZE = 4L << 20;
+
+    // A line aligned part of an input file
+    private static class Chunk {
+        final FileChannel file;
+        final long start;
+        final long end;
+
+        Chunk(FileChannel file, long start, long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    // Evaluator of each worker thread, bound to a new chunk for every task
+    private static final ThreadLocal<CalculatorEval> evaluator = new ThreadLocal<>();
+
+    private final ForkJoinPool pool;
+    private final boolean iterative;
+    private final LL1Table table;
+
+    private ParallelCalculator(ForkJoinPool pool, boolean iterative, LL1Table table) {
+        this.pool = pool;
+        this.iterative = iterative;
+        this.table = table;
+    }
+
+    // Split a file into chunks of about CHUNK_SIZE bytes, each ending after a newline (or at the
+    // end of the file)
+    private static void split(FileChannel file, List<Chunk> chunks) throws IOException {
+        long size = file.size();
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(start + CHUNK_SIZE, size);
+            // Move the end of the chunk past the next newline
+            while (end < size) {
+                probe.clear();
+                int n = file.read(probe, end);
+                if (n <= 0)
+                    break;
+                int i = ByteScan.indexOf(probe, (byte) '\n', 0, n);
+                if (i >= 0) {
+                    end += i + 1;
+                    break;
+                }
+                end += n;
+            }
+            chunks.add(new Chunk(file, start, Math.min(end, size)));
+            start = end;
+        }
+    }
+
+    // Evaluate one chunk, returning its output lines
+    private byte[] evaluate(Chunk chunk) {
+        try {
+            long size = chunk.end - chunk.start;
+            ByteInput in = ByteInput.wrap(chunk.file.map(FileChannel.MapMode.READ_ONLY, chunk.start, size), chunk.start);
+            CalculatorEval eval = evaluator.get();
+            if (eval == null) {
+                eval = new CalculatorEval(in);
+                eval.setIterative(iterative);
+                eval.setTable(table);
+                evaluator.set(eval);
+            }
+            else
+                eval.reset(in);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) size / 2);
+            ResultWriter out = new ResultWriter(bytes);
+            eval.eval_batch(out);
+            out.flush();
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Evaluate all chunks and write their results in order. At most a few chunks per worker are
+    // in flight, so finished output does not pile up behind a slow chunk
+    private void run(List<Chunk> chunks, FileOutputStream out) throws IOException {
+        int window = pool.getParallelism() * 4;
+        ArrayDeque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+        int next = 0;
+        while (next < chunks.size() || !pending.isEmpty()) {
+            while (next < chunks.size() && pending.size() < window) {
+                Chunk chunk = chunks.get(next++);
+                pending.add(pool.submit(() -> evaluate(chunk)));
+            }
+            out.write(pending.poll().join());
+        }
+        out.flush();
+    }
+
+    public static void main(String[] args) {
+        boolean iterative = false;
+        String tableFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int fileArg = 0;
+        for (; fileArg < args.length && args[fileArg].startsWith("--"); fileArg++) {
+            if (args[fileArg].equals("--iterative"))
+                iterative = true;
+            else if (args[fileArg].equals("--table") && fileArg + 1 < args.length)
+                tableFile = args[++fileArg];
+            else if (args[fileArg].equals("--threads") && fileArg + 1 < args.length)
+                threads = Integer.parseInt(args[++fileArg]);
+            else
+                fileArg = args.length;
+        }
+        if (fileArg >= args.length) {
+            System.err.println("Usage: java ParallelCalculator [--iterative] [--table lookup_table] [--threads N] [file1] [file2] ... [fileN]");
+            System.exit(1);
+        }
+
+        List<FileChannel> files = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            long bytes = 0;
+            List<Chunk> chunks = new ArrayList<>();
+            for (int i = fileArg; i < args.length; i++) {
+                FileChannel file = FileChannel.open(Paths.get(args[i]), StandardOpenOption.READ);
+                files.add(file);
+                bytes += file.size();
+                split(file, chunks);
+            }
+
+            LL1Table table = tableFile != null ? LL1Table.load(Paths.get(tableFile)) : null;
+            long start = System.nanoTime();
+            new ParallelCalculator(pool, iterative, table).run(chunks, new FileOutputStream(FileDescriptor.out));
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.err.printf("%d files, %d chunks, %d bytes in %.3f s on %d threads (%.0f bytes/s)%n",
+                    files.size(), chunks.size(), bytes, secs, threads, bytes / secs);
+        }
+        catch (IOException | UncheckedIOException e) {
+            System.err.println(e.getMessage());
+        }
+        finally {
+            pool.shutdown();
+            for (FileChannel file : files) {
+                try {
+                    file.close();
+                }
+                catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -1,6 +1,44 @@
 public class ParseError extends Exception {
 
+    // Byte offset of the offending character in the input (-1 if not known) and the character
+    // itself (-1 for the end of the input)
+    private long offset;
+    private int character;
+
+    public ParseError() {
+        // No stack trace is filled in, an evaluator throws the same instance for every error
+        super(null, null, false, false);
+        offset = -1;
+        character = -1;
+    }
+
+    // Set the position of the error and return this instance, to be thrown again
+    ParseError at(long offset, int character) {
+        this.offset = offset;
+        this.character = character;
+        return this;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getCharacter() {
+        return character;
+    }
+
     public String getMessage() {
-	    return "Parse error";
+        if (offset < 0)
+	        return "Parse error";
+        StringBuilder sb = new StringBuilder("Parse error at byte ").append(offset).append(": ");
+        if (character == -1)
+            sb.append("unexpected end of input");
+        else if (character == '\n')
+            sb.append("unexpected end of line");
+        else if (character >= ' ' && character <= '~')
+            sb.append("unexpected '").append((char) character).append('\'');
+        else
+            sb.append("unexpected byte ").append(character);
+        return sb.toString();
     }
-}
\ No newline at end of file
+}
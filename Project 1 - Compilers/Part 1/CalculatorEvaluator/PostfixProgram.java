@@ -0,0 +1,153 @@
+import java.util.Arrays;
+
+/**
+ * An expression compiled to a postfix program that is evaluated over columns of variable values,
+ * a block of rows at a time. Every instruction runs once per block in a loop over its rows, so the
+ * cost of dispatching an instruction is shared by all the rows of the block
+ */
+
+final class PostfixProgram {
+    // Rows evaluated together, small enough for the operand stack of a block to stay in cache
+    static final int BLOCK_SIZE = 1024;
+
+    // Instructions push a constant or a variable, or apply an operator to the two values on top of
+    // the stack. An operator whose right operand is a constant or a variable takes it as its
+    // argument instead, which saves pushing a copy of it
+    private static final int PUSH_CONST = 0;
+    private static final int PUSH_VAR = 1;
+    private static final int STACK = 2;
+    private static final int CONST = 3;
+    private static final int VAR = 4;
+    // Operators, in the order of OPERATORS
+    private static final int ADD = 0;
+    private static final int SUB = 1;
+    private static final int MUL = 2;
+    private static final String OPERATORS = "+-*/";
+
+    // Each instruction is its argument shifted left by 8, the operator in bits 3 - 4 and the kind
+    // of its operand (one of the constants above) in bits 0 - 2
+    private final int[] code;
+    private final int maxStack;
+
+    private PostfixProgram(int[] code, int maxStack) {
+        this.code = code;
+        this.maxStack = maxStack;
+    }
+
+    static PostfixProgram compile(ExprNode root) {
+        ExprNode[] nodes = root.postorder();
+        int[] code = new int[nodes.length];
+        int n = 0;
+        int depth = 0;
+        int maxStack = 0;
+        for (ExprNode node : nodes) {
+            if (node.kind == ExprNode.NUM || node.kind == ExprNode.VAR) {
+                code[n++] = node.value << 8 | (node.kind == ExprNode.NUM ? PUSH_CONST : PUSH_VAR);
+                maxStack = Math.max(maxStack, ++depth);
+                continue;
+            }
+            int operator = OPERATORS.indexOf(node.kind);
+            // The instruction before an operator ends its right operand, if it is a push the
+            // operator takes the pushed value as its argument
+            int last = code[n - 1];
+            if ((last & 7) == PUSH_CONST || (last & 7) == PUSH_VAR) {
+                code[n - 1] = (last & ~7) | operator << 3 | ((last & 7) == PUSH_CONST ? CONST : VAR);
+                depth--;
+            }
+            else {
+                code[n++] = operator << 3 | STACK;
+                depth--;
+            }
+        }
+        return new PostfixProgram(Arrays.copyOf(code, n), maxStack);
+    }
+
+    // Evaluate the program for the first rows of the columns and store the results in out.
+    // columns[v] holds the values of variable v ('a' is 0, 'z' is 25) and is only read if the
+    // expression uses it. Throws an ArithmeticException on a division by zero
+    void eval(int[][] columns, int rows, int[] out) {
+        int[][] stack = new int[maxStack][BLOCK_SIZE];
+        for (int from = 0; from < rows; from += BLOCK_SIZE) {
+            int n = Math.min(BLOCK_SIZE, rows - from);
+            int top = -1;
+            for (int instruction : code) {
+                int arg = instruction >> 8;
+                int operator = instruction >> 3 & 3;
+                int operand = instruction & 7;
+                if (operand == PUSH_CONST) {
+                    Arrays.fill(stack[++top], 0, n, arg);
+                    continue;
+                }
+                if (operand == PUSH_VAR) {
+                    System.arraycopy(columns[arg], from, stack[++top], 0, n);
+                    continue;
+                }
+
+                int[] left;
+                int[] right;
+                int offset;
+                if (operand == STACK) {
+                    left = stack[top - 1];
+                    right = stack[top--];
+                    offset = 0;
+                }
+                else if (operand == VAR) {
+                    left = stack[top];
+                    right = columns[arg];
+                    offset = from;
+                }
+                else {
+                    applyConst(operator, stack[top], n, arg);
+                    continue;
+                }
+                apply(operator, left, right, offset, n);
+            }
+            System.arraycopy(stack[0], 0, out, from, n);
+        }
+    }
+
+    // left[i] = left[i] op right[offset + i] for the first n rows
+    private static void apply(int operator, int[] left, int[] right, int offset, int n) {
+        switch (operator) {
+            case ADD:
+                for (int i = 0; i < n; i++)
+                    left[i] += right[offset + i];
+                break;
+            case SUB:
+                for (int i = 0; i < n; i++)
+                    left[i] -= right[offset + i];
+                break;
+            case MUL:
+                for (int i = 0; i < n; i++)
+                    left[i] *= right[offset + i];
+                break;
+            default:
+                for (int i = 0; i < n; i++)
+                    left[i] /= right[offset + i];
+                break;
+        }
+    }
+
+    private static void applyConst(int operator, int[] left, int n, int value) {
+        switch (operator) {
+            case ADD:
+                for (int i = 0; i < n; i++)
+                    left[i] += value;
+                break;
+            case SUB:
+                for (int i = 0; i < n; i++)
+                    left[i] -= value;
+                break;
+            case MUL:
+                for (int i = 0; i < n; i++)
+                    left[i] *= value;
+                break;
+            default:
+                if (value == 0)
+                    throw new ArithmeticException("/ by zero");
+                for (int i = 0; i < n; i++)
+                    left[i] /= value;
+                break;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Bounded cache of evaluation results keyed on the raw bytes of an expression line, the least
+ * recently used entry is evicted when it is full. Lookups compare against the input buffer in
+ * place, so a hit allocates nothing
+ */
+
+final class ResultCache {
+    // Kinds of cached results
+    static final int VALUE = 0;
+    static final int PARSE_ERROR = 1;
+    static final int DIVISION_BY_ZERO = 2;
+
+    private static final int NONE = -1;
+
+    // Hash table of entry chains
+    private final int[] buckets;
+    private final int[] chain;
+
+    // Entries
+    private final byte[][] keys;
+    private final int[] hashes;
+    private final int[] kinds;
+    // Result of VALUE entries, offset of the error in the line for PARSE_ERROR entries
+    private final int[] values;
+    // Offending character of PARSE_ERROR entries
+    private final int[] characters;
+    private int size;
+
+    // Doubly linked list of entries, most recently used first
+    private final int[] prev;
+    private final int[] next;
+    private int head;
+    private int tail;
+
+    private long hits;
+    private long misses;
+
+    ResultCache(int capacity) {
+        int tableSize = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) * 2;
+        buckets = new int[tableSize];
+        Arrays.fill(buckets, NONE);
+        chain = new int[capacity];
+        keys = new byte[capacity][];
+        hashes = new int[capacity];
+        kinds = new int[capacity];
+        values = new int[capacity];
+        characters = new int[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+        size = 0;
+        head = NONE;
+        tail = NONE;
+        hits = 0;
+        misses = 0;
+    }
+
+    static int hash(ByteBuffer buf, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++)
+            h = 31 * h + buf.get(i);
+        return h;
+    }
+
+    // Return the entry of the expression in buf[from, to) or -1, counting a hit or a miss
+    int find(ByteBuffer buf, int from, int to, int hash) {
+        for (int e = buckets[hash & (buckets.length - 1)]; e != NONE; e = chain[e]) {
+            if (hashes[e] == hash && matches(keys[e], buf, from, to)) {
+                hits++;
+                moveToFront(e);
+                return e;
+            }
+        }
+        misses++;
+        return NONE;
+    }
+
+    int kind(int entry) {
+        return kinds[entry];
+    }
+
+    int value(int entry) {
+        return values[entry];
+    }
+
+    int character(int entry) {
+        return characters[entry];
+    }
+
+    // Insert the result of an expression that was not found, evicting the least recently used
+    // entry if the cache is full
+    void put(byte[] key, int hash, int kind, int value, int character) {
+        int e;
+        if (size < keys.length)
+            e = size++;
+        else {
+            e = tail;
+            unlink(e);
+            removeFromBucket(e);
+        }
+        keys[e] = key;
+        hashes[e] = hash;
+        kinds[e] = kind;
+        values[e] = value;
+        characters[e] = character;
+
+        int bucket = hash & (buckets.length - 1);
+        chain[e] = buckets[bucket];
+        buckets[bucket] = e;
+        linkFirst(e);
+    }
+
+    long hits() {
+        return hits;
+    }
+
+    long misses() {
+        return misses;
+    }
+
+    private static boolean matches(byte[] key, ByteBuffer buf, int from, int to) {
+        if (key.length != to - from)
+            return false;
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != buf.get(from + i))
+                return false;
+        }
+        return true;
+    }
+
+    private void removeFromBucket(int e) {
+        int bucket = hashes[e] & (buckets.length - 1);
+        if (buckets[bucket] == e) {
+            buckets[bucket] = chain[e];
+            return;
+        }
+        int p = buckets[bucket];
+        while (chain[p] != e)
+            p = chain[p];
+        chain[p] = chain[e];
+    }
+
+    private void moveToFront(int e) {
+        if (e != head) {
+            unlink(e);
+            linkFirst(e);
+        }
+    }
+
+    private void linkFirst(int e) {
+        prev[e] = NONE;
+        next[e] = head;
+        if (head != NONE)
+            prev[head] = e;
+        head = e;
+        if (tail == NONE)
+            tail = e;
+    }
+
+    private void unlink(int e) {
+        if (prev[e] != NONE)
+            next[prev[e]] = next[e];
+        else
+            head = next[e];
+        if (next[e] != NONE)
+            prev[next[e]] = prev[e];
+        else
+            tail = prev[e];
+    }
+}
@@ -0,0 +1,122 @@
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffered writer for evaluation results, numbers are formatted straight into a byte buffer
+ */
+
+final class ResultWriter implements Flushable {
+    private final OutputStream out;
+    private final byte[] buf;
+    private int count;
+
+    ResultWriter(OutputStream out) {
+        this.out = out;
+        buf = new byte[1 << 16];
+        count = 0;
+    }
+
+    void writeInt(int value) throws IOException {
+        if (count + 11 > buf.length)
+            flushBuffer();
+        if (value == Integer.MIN_VALUE) {
+            writeAscii("-2147483648");
+            return;
+        }
+        if (value < 0) {
+            buf[count++] = '-';
+            value = -value;
+        }
+        // Digits are written backwards after the sign, then the count is moved past them
+        int end = count + digits(value);
+        int pos = end;
+        do {
+            buf[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        count = end;
+    }
+
+    void writeLong(long value) throws IOException {
+        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            writeInt((int) value);
+            return;
+        }
+        if (count + 20 > buf.length)
+            flushBuffer();
+        if (value < 0)
+            buf[count++] = '-';
+        else
+            value = -value;
+        // Work with the negative value, which also covers Long.MIN_VALUE
+        int first = count;
+        do {
+            buf[count++] = (byte) ('0' - value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = first, j = count - 1; i < j; i++, j--) {
+            byte b = buf[i];
+            buf[i] = buf[j];
+            buf[j] = b;
+        }
+    }
+
+    // Same text as ParseError.getMessage(), written without allocating
+    void writeParseError(long offset, int character) throws IOException {
+        writeAscii("Parse error at byte ");
+        writeLong(offset);
+        if (character == -1)
+            writeAscii(": unexpected end of input");
+        else if (character == '\n')
+            writeAscii(": unexpected end of line");
+        else if (character >= ' ' && character <= '~') {
+            writeAscii(": unexpected '");
+            if (count == buf.length)
+                flushBuffer();
+            buf[count++] = (byte) character;
+            writeAscii("'");
+        }
+        else {
+            writeAscii(": unexpected byte ");
+            writeInt(character);
+        }
+    }
+
+    void writeAscii(String s) throws IOException {
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            if (count == buf.length)
+                flushBuffer();
+            buf[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    void newLine() throws IOException {
+        if (count == buf.length)
+            flushBuffer();
+        buf[count++] = '\n';
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buf, 0, count);
+            count = 0;
+        }
+    }
+
+    private static int digits(int value) {
+        int n = 1;
+        while (value >= 10) {
+            value /= 10;
+            n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,46 @@
+import java.util.List;
+
+/**
+ * Output of the translator. The parser actions call a backend for every construct they reduce and
+ * pass the values it returns (of its own types) back into the enclosing constructs. Functions and
+ * top level calls are handed over as soon as they are complete, so a backend can write them out
+ * without keeping the whole program
+ */
+
+interface Backend {
+    // A string literal, with its escapes already resolved
+    Object literal(String text);
+
+    // A parameter of the enclosing function
+    Object param(String name);
+
+    Object concat(Object left, Object right);
+
+    // A value in parentheses
+    Object paren(Object value);
+
+    // left = right
+    Object equalsCond(Object left, Object right);
+
+    // needle in haystack
+    Object containsCond(Object needle, Object haystack);
+
+    // if (cond) then else otherwise
+    Object ifElse(Object cond, Object then, Object otherwise);
+
+    Object call(String name, List<Object> args);
+
+    Object function(String name, List<String> params, Object body);
+
+    // Start of the program, before any of its functions and calls
+    void begin() throws Exception;
+
+    // A function of the program, in the order they are declared
+    void declare(Object function) throws Exception;
+
+    // A call whose result is printed, in the order they are made. Calls come after all functions
+    void print(Object call) throws Exception;
+
+    // End of the program
+    void end() throws Exception;
+}
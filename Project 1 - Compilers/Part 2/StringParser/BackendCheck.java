@@ -0,0 +1,205 @@
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Checks that the backends agree. Every program is run by the interpreter, and translated and run
+ * in this JVM by the Java backend in all of its modes and by the class file backend, each with and
+ * without the optimizer. The first output that differs from the one of the interpreter is reported.
+ * Programs with errors must be rejected by the interpreter and the class file backend alike
+ */
+
+class BackendCheck {
+    private static final int MEMO_SIZE = 100;
+
+    // Parameters named like the locals, fields and packages the memo wrappers use, and a function
+    // named like the method of another one that runs its body, declared after it
+    private static final String MEMO_NAMES =
+            "f(value) { value + \"!\" + f$compute(value) }\n" +
+            "f$compute(x) { \"?\" + x }\n" +
+            "g(key, x) { key + x }\n" +
+            "h(java, Memo, h$memo4, key$) { java + Memo + h$memo4 + key$ + g(key$, java) + f(Memo) }\n" +
+            "\nf(\"a\")\ng(\"b\", \"c\")\nh(\"1\", \"2\", \"3\", \"4\")\nf$compute(\"d\")\n";
+
+    // Chains of + as values, arguments and both sides of conditions
+    private static final String CHAINS =
+            "tag(name, x) { \"<\" + name + \">\" + x + \"</\" + name + \">\" }\n" +
+            "greet(who) { if (\"Doe\" in who) (\"Dear \" + who) else (\"Hi \" + who) }\n" +
+            "same(a, b) { if (a + b + a = a + a + b) \"same\" else \"different\" }\n" +
+            "\ntag(\"b\", greet(\"John\" + \" \" + \"Doe\"))\ntag(\"i\", greet(\"Jane\"))\nsame(\"ab\", \"ab\")\nsame(\"a\", \"b\")\n";
+
+    // Calls repeated with the same arguments, which the memos answer
+    private static final String REPEATS =
+            "dec(n) { if (n = \"111\") \"11\" else if (n = \"11\") \"1\" else \"\" }\n" +
+            "tree(n) { if (n = \"\") \"<leaf/>\" else (\"<node>\" + tree(dec(n)) + tree(dec(n)) + \"</node>\") }\n" +
+            "\ntree(\"111\")\ntree(\"11\")\ntree(\"111\")\n";
+
+    // An if..else without parentheses followed by +, which adds to the whole if..else
+    private static final String GROUPING =
+            "f(x) { if (x = \"a\") \"b\" else \"c\" + x }\n" +
+            "\nf(\"a\")\nf(\"z\")\n";
+
+    // The same with a constant condition, which the folder decides while translating, next to one
+    // that is only decided when the program runs. Both print bd
+    private static final String FOLDED_GROUPING =
+            "h() { if (\"a\" = \"a\") \"b\" else \"c\" + \"d\" }\n" +
+            "k(x) { if (x = \"a\") \"b\" else \"c\" + \"d\" }\n" +
+            "\nh()\nk(\"a\")\n";
+
+    // An if..else as a part in the middle of a chain, and in a chain that is compared. With --rope
+    // these are arguments of Rope.concat and Rope.eq instead of operands of +
+    private static final String PARTS =
+            "wrap(x) { \"[\" + if (x = \"\") \"empty\" else \"full \" + x + \"]\" }\n" +
+            "same(x) { if ((x + if (x = \"a\") \"1\" else \"2\") = \"a1\") \"yes\" else \"no\" + x }\n" +
+            "\nwrap(\"\")\nwrap(\"z\")\nsame(\"a\")\nsame(\"b\")\nwrap(same(\"a\") + same(\"c\"))\n";
+
+    // An if..else followed by + after an else if, on both sides of = and in, and as arguments of
+    // inner and top level calls
+    private static final String SIDES =
+            "pick(x) { if (x = \"a\") \"1\" else if (x = \"b\") \"2\" else \"3\" + x }\n" +
+            "test(x) { if (if (x = \"a\") \"b\" else \"c\" + x = \"ba\") \"left\" " +
+            "else if (x in if (x = \"z\") \"yz\" else \"a\" + \"bc\") \"right\" else \"none\" }\n" +
+            "call(x) { pick(if (x = \"a\") \"a\" else \"b\" + \"\") + pick(if (x = \"b\") \"a\" else x + \"!\") }\n" +
+            "\npick(\"a\")\npick(\"b\")\npick(\"c\")\ntest(\"a\")\ntest(\"z\")\ntest(\"c\")\ntest(\"q\")\n" +
+            "call(\"a\")\ncall(\"b\")\npick(if (\"a\" = \"b\") \"a\" else \"b\" + \"c\")\n" +
+            "test(if (\"a\" in \"abc\") \"z\" else \"y\" + \"\")\n";
+
+    // Functions and parameters named like the helpers and their parameters that the optimizer makes
+    // for common expressions
+    private static final String HELPER_NAMES =
+            "f$cse1(x, y) { if (x = \"\") \"user\" + y else f$cse1(\"\", x) + y }\n" +
+            "f(x) { f$cse1(x + x, x) + f$cse1(x + x, x) }\n" +
+            "g(cse$2, y) { f(cse$2 + y) + \"/\" + f(cse$2 + y) }\n" +
+            "\nf(\"a\")\ng(\"b\", \"c\")\nf$cse1(\"d\", \"e\")\n";
+
+    private static final String[] NAMES = { "memo names", "chains", "repeats", "grouping", "folded grouping", "parts", "sides", "helper names" };
+    private static final String[] PROGRAMS = { MEMO_NAMES, CHAINS, REPEATS, GROUPING, FOLDED_GROUPING, PARTS, SIDES, HELPER_NAMES };
+
+    // Programs with errors, in some of them only a later call calls the undeclared function
+    private static final String[] ERRORS = {
+            "f(x) { x }\n\ng(\"a\")\n",
+            "f(x) { x }\n\nf(\"a\")\ng(\"b\")\n",
+            "f(x) { x }\n\nf(\"a\")\nf(g(\"b\"))\n",
+            "f(x) { y }\n\nf(\"a\")\n",
+            "f(x) { x }\nf(y) { y }\n\nf(\"a\")\n"
+    };
+
+    private static Backend optimized(Backend backend, boolean optimize) {
+        return optimize ? new IrBackend(backend) : backend;
+    }
+
+    private static String interpret(String program) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(out, true));
+        try {
+            new Parser(new Scanner(new StringReader(program)), new FoldingBackend(new Interpreter())).parse();
+        }
+        finally {
+            System.setOut(stdout);
+        }
+        return out.toString();
+    }
+
+    // Output of the main method, the memo reports are thrown away
+    private static String run(Method main) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        System.setOut(new PrintStream(out, true));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            main.invoke(null, (Object) new String[0]);
+        }
+        finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        return out.toString();
+    }
+
+    private static String translate(JavaRunner runner, String program, int memoSize, boolean ropes, boolean parallel,
+            boolean optimize) throws Exception {
+        StringWriter source = new StringWriter();
+        Backend backend = optimized(new JavaBackend(source, memoSize, ropes, parallel), optimize);
+        new Parser(new Scanner(new StringReader(program)), new FoldingBackend(backend)).parse();
+        return run(runner.compile(source.toString()));
+    }
+
+    private static String classFile(String program, boolean optimize) throws Exception {
+        Path directory = Files.createTempDirectory("BackendCheck");
+        Path file = directory.resolve("Main.class");
+        try {
+            Backend backend = optimized(new ClassFileBackend(directory), optimize);
+            new Parser(new Scanner(new StringReader(program)), new FoldingBackend(backend)).parse();
+            try (URLClassLoader loader = new URLClassLoader(new URL[] { directory.toUri().toURL() }, null)) {
+                return run(loader.loadClass("Main").getMethod("main", String[].class));
+            }
+        }
+        finally {
+            Files.deleteIfExists(file);
+            Files.delete(directory);
+        }
+    }
+
+    // Message of the error the backend rejects the program with
+    private static String error(String program, boolean classFile) throws Exception {
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            if (classFile)
+                classFile(program, false);
+            else
+                interpret(program);
+        }
+        catch (Error e) {
+            return e.getMessage();
+        }
+        finally {
+            System.setOut(stdout);
+        }
+        return "no error";
+    }
+
+    private static void check(String name, String mode, String expected, String actual) {
+        if (!actual.equals(expected)) {
+            System.err.println(name + ", " + mode + ":\n  interpreted:\n" + expected + "  translated:\n" + actual);
+            System.exit(1);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        JavaRunner runner = new JavaRunner();
+        int modes = 0;
+        for (int i = 0; i < PROGRAMS.length; i++) {
+            String expected = interpret(PROGRAMS[i]);
+            for (boolean optimize : new boolean[] { false, true }) {
+                String suffix = optimize ? " --optimize" : "";
+                for (int memoSize : new int[] { 0, MEMO_SIZE }) {
+                    for (boolean ropes : new boolean[] { false, true }) {
+                        for (boolean parallel : new boolean[] { false, true }) {
+                            String mode = "--run" + (memoSize > 0 ? " --memo" : "") + (ropes ? " --rope" : "")
+                                    + (parallel ? " --parallel" : "") + suffix;
+                            check(NAMES[i], mode, expected, translate(runner, PROGRAMS[i], memoSize, ropes, parallel, optimize));
+                            modes++;
+                        }
+                    }
+                }
+                check(NAMES[i], "--class" + suffix, expected, classFile(PROGRAMS[i], optimize));
+                modes++;
+            }
+        }
+        for (String program : ERRORS) {
+            check(program, "--class error", error(program, false), error(program, true));
+            modes += 2;
+        }
+        System.err.println(PROGRAMS.length + ERRORS.length + " programs, " + modes + " runs, no differences");
+    }
+}
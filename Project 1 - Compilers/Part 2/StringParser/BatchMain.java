@@ -0,0 +1,197 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Translates many programs in one JVM. The programs are given as files or directories of files,
+ * and each one is translated into its own directory of the output directory, named after the file:
+ * out/name/Main.java (or out/name/Main.class with --class). A program that fails to translate leaves
+ * no translation behind. Worker threads take the programs in turn, each with one scanner and parser
+ * that it reuses for all of its programs
+ */
+
+class BatchMain {
+    private final List<Path> programs;
+    private final Path outDir;
+    private final boolean classFile;
+    private final int memoSize;
+    private final boolean ropes;
+    private final boolean parallel;
+    private final boolean optimize;
+
+    // Next program to translate
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private BatchMain(List<Path> programs, Path outDir, boolean classFile, int memoSize, boolean ropes, boolean parallel,
+            boolean optimize) {
+        this.programs = programs;
+        this.outDir = outDir;
+        this.classFile = classFile;
+        this.memoSize = memoSize;
+        this.ropes = ropes;
+        this.parallel = parallel;
+        this.optimize = optimize;
+    }
+
+    // Directory of the translation of a program, named after its file without the extension
+    private Path outputOf(Path program) {
+        String name = program.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return outDir.resolve(dot > 0 ? name.substring(0, dot) : name);
+    }
+
+    private Backend optimized(Backend backend) {
+        return optimize ? new IrBackend(backend) : backend;
+    }
+
+    // Remove what a failed translation left in its directory, and the directory if it is empty
+    // then, so no program that failed has a translation in the output directory
+    private void discard(Path output) {
+        if (!Files.isDirectory(output))
+            return;
+        try {
+            Files.deleteIfExists(output.resolve("Main.java.part"));
+            Files.deleteIfExists(output.resolve(classFile ? "Main.class" : "Main.java"));
+            boolean empty;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(output)) {
+                empty = !files.iterator().hasNext();
+            }
+            if (empty)
+                Files.delete(output);
+        }
+        catch (IOException e) {
+            System.err.println(output + ": " + e.getMessage());
+        }
+    }
+
+    private void work() {
+        Scanner scanner = new Scanner(new StringReader(""));
+        Parser parser = new Parser(scanner);
+        for (int i = next.getAndIncrement(); i < programs.size(); i = next.getAndIncrement()) {
+            Path program = programs.get(i);
+            Path output = outputOf(program);
+            try {
+                Files.createDirectories(output);
+                scanner.yyreset(new MappedReader(program));
+                if (classFile) {
+                    parser.backend = new FoldingBackend(optimized(new ClassFileBackend(output)));
+                    parser.parse();
+                    continue;
+                }
+                // Written next to Main.java and moved over it once complete, so Main.java is never
+                // a partial translation
+                Path partial = output.resolve("Main.java.part");
+                try (Writer out = Files.newBufferedWriter(partial, StandardCharsets.UTF_8)) {
+                    parser.backend = new FoldingBackend(optimized(new JavaBackend(out, memoSize, ropes, parallel)));
+                    parser.parse();
+                }
+                Files.move(partial, output.resolve("Main.java"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (Exception | Error e) {
+                failed.incrementAndGet();
+                System.err.println(program + ": " + e.getMessage());
+                discard(output);
+            }
+        }
+    }
+
+    private void run(int threads) throws InterruptedException {
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work, "worker-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers)
+            worker.join();
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java BatchMain [--threads N] [--memo[=size]] [--rope] [--parallel] [--optimize] [--class] --out dir (file | dir)...");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean classFile = false;
+        int memoSize = 0;
+        boolean ropes = false;
+        boolean parallel = false;
+        boolean optimize = false;
+        Path outDir = null;
+        List<Path> programs = new ArrayList<Path>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length)
+                threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--class"))
+                classFile = true;
+            else if (args[i].equals("--memo"))
+                memoSize = 10000;
+            else if (args[i].startsWith("--memo="))
+                memoSize = Integer.parseInt(args[i].substring("--memo=".length()));
+            else if (args[i].equals("--rope"))
+                ropes = true;
+            else if (args[i].equals("--parallel"))
+                parallel = true;
+            else if (args[i].equals("--optimize"))
+                optimize = true;
+            else if (args[i].equals("--out") && i + 1 < args.length)
+                outDir = Paths.get(args[++i]);
+            else if (args[i].startsWith("--"))
+                usage();
+            else if (Files.isDirectory(Paths.get(args[i]))) {
+                // The files of a directory, in name order
+                List<Path> files = new ArrayList<Path>();
+                try (DirectoryStream<Path> dir = Files.newDirectoryStream(Paths.get(args[i]))) {
+                    for (Path file : dir) {
+                        if (Files.isRegularFile(file))
+                            files.add(file);
+                    }
+                }
+                Collections.sort(files);
+                programs.addAll(files);
+            }
+            else
+                programs.add(Paths.get(args[i]));
+        }
+        if (outDir == null || programs.isEmpty() || threads < 1)
+            usage();
+        if (classFile && (memoSize > 0 || ropes || parallel)) {
+            System.err.println("--class can not be combined with --memo, --rope or --parallel");
+            System.exit(1);
+        }
+
+        BatchMain batch = new BatchMain(programs, outDir, classFile, memoSize, ropes, parallel, optimize);
+        // Two programs with the same name would overwrite each other's translation
+        Map<Path, Path> outputs = new HashMap<Path, Path>();
+        for (Path program : programs) {
+            Path other = outputs.put(batch.outputOf(program), program);
+            if (other != null) {
+                System.err.println(other + " and " + program + " would both be translated into " + batch.outputOf(program) + File.separator);
+                System.exit(1);
+            }
+        }
+
+        long start = System.nanoTime();
+        batch.run(Math.min(threads, programs.size()));
+        long time = System.nanoTime() - start;
+        System.err.printf("%d programs translated in %.1f ms with %d threads, %d failed%n", programs.size() - batch.failed.get(),
+                time / 1e6, Math.min(threads, programs.size()), batch.failed.get());
+        if (batch.failed.get() > 0)
+            System.exit(1);
+    }
+}
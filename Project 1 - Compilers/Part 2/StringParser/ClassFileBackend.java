@@ -0,0 +1,458 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Translates the program straight into Main.class, without Java source and javac in between. Every
+ * function becomes a static method and main prints the result of every call. Values are pieces of
+ * bytecode that are joined without copying (like the fragments of the Java backend), and the code
+ * of a function is laid out in one array once the function is complete. A chain of + copies each of
+ * its parts once however long it is: it is built with one StringBuilder, as javac does
+ */
+
+class ClassFileBackend implements Backend {
+    // Class file version 49 (Java 5), which does not need stack map frames for the branches
+    private static final int VERSION = 49;
+    private static final String CLASS_NAME = "Main";
+    // Longest code of a method the class file format allows
+    private static final int MAX_CODE = 65535;
+    // The calls of main are split into methods of at most this much code
+    private static final int MAX_CALLS_CODE = 60000;
+
+    private static final int LDC = 0x12;
+    private static final int LDC_W = 0x13;
+    private static final int ALOAD = 0x19;
+    private static final int DUP = 0x59;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int GOTO = 0xa7;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+    private static final int GETSTATIC = 0xb2;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int NEW = 0xbb;
+    private static final int GOTO_W = 0xc8;
+
+    // A piece of code that leaves one value on the stack. Its parts are byte arrays, other pieces
+    // and loads of parameters, which are resolved when the enclosing function is complete
+    private static final class Code {
+        final Object[] parts;
+        final int length;
+        // Stack depth the piece needs, its result included
+        final int maxStack;
+
+        Code(int maxStack, Object... parts) {
+            int length = 0;
+            for (Object part : parts) {
+                if (part instanceof byte[])
+                    length += ((byte[]) part).length;
+                else if (part instanceof Code)
+                    length += ((Code) part).length;
+                else
+                    length += 2;
+            }
+            this.parts = parts;
+            this.length = length;
+            this.maxStack = maxStack;
+        }
+    }
+
+    // A chain of + that is still being parsed. The parser passes every value on once, so the next
+    // operand is added to the chain in place, and the code is made when the chain is used
+    private static final class Chain {
+        final List<Code> parts = new ArrayList<Code>();
+    }
+
+    // Load of a parameter (an aload with the slot of the parameter)
+    private static final class Param {
+        final String name;
+
+        Param(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class Method {
+        final String name;
+        final String descriptor;
+        final byte[] code;
+        final int maxStack;
+        final int maxLocals;
+
+        Method(String name, String descriptor, byte[] code, int maxStack, int maxLocals) {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.code = code;
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+        }
+    }
+
+    // Directory Main.class is written to
+    private final Path directory;
+
+    // Constant pool, entries are looked up by a key made of their tag and contents
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolEntries = new HashMap<String, Integer>();
+    private int poolCount = 1;
+
+    // Name and descriptor of every function that is called, checked against the declared ones
+    private final Set<String> called = new HashSet<String>();
+    // Name and descriptor of every function declared so far
+    private final Set<String> declared = new HashSet<String>();
+    // Functions declared so far, laid out
+    private final List<Method> methods = new ArrayList<Method>();
+    // Prints not laid out yet and the length of their code
+    private final List<Code> prints = new ArrayList<Code>();
+    private int printsLength;
+    // Methods the prints have been laid out in
+    private final List<Method> callParts = new ArrayList<Method>();
+
+    private final int concat;
+    private final int builder;
+    private final int builderInit;
+    private final int append;
+    private final int builderToString;
+    private final int equals;
+    private final int contains;
+    private final int systemOut;
+    private final int println;
+
+    ClassFileBackend(Path directory) {
+        this.directory = directory;
+        concat = methodRef("java/lang/String", "concat", "(Ljava/lang/String;)Ljava/lang/String;");
+        builder = classRef("java/lang/StringBuilder");
+        builderInit = methodRef("java/lang/StringBuilder", "<init>", "()V");
+        append = methodRef("java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;");
+        builderToString = methodRef("java/lang/StringBuilder", "toString", "()Ljava/lang/String;");
+        equals = methodRef("java/lang/String", "equals", "(Ljava/lang/Object;)Z");
+        contains = methodRef("java/lang/String", "contains", "(Ljava/lang/CharSequence;)Z");
+        systemOut = fieldRef("java/lang/System", "out", "Ljava/io/PrintStream;");
+        println = methodRef("java/io/PrintStream", "println", "(Ljava/lang/String;)V");
+    }
+
+    public Object literal(String text) {
+        int index = constant("S" + text, 8, utf8(text));
+        if (index < 256)
+            return new Code(1, new byte[] { (byte) LDC, (byte) index });
+        return new Code(1, instruction(LDC_W, index));
+    }
+
+    public Object param(String name) {
+        return new Code(1, new Param(name));
+    }
+
+    public Object concat(Object left, Object right) {
+        Chain chain;
+        if (left instanceof Chain)
+            chain = (Chain) left;
+        else {
+            chain = new Chain();
+            chain.parts.add((Code) left);
+        }
+        if (right instanceof Chain)
+            chain.parts.addAll(((Chain) right).parts);
+        else
+            chain.parts.add((Code) right);
+        return chain;
+    }
+
+    // The code of a value, a chain is new StringBuilder().append(part)...toString(). Two parts are
+    // joined with String.concat instead, which copies each of them once as well
+    private Code code(Object value) {
+        if (!(value instanceof Chain))
+            return (Code) value;
+        List<Code> parts = ((Chain) value).parts;
+        if (parts.size() == 2)
+            return binary(parts.get(0), parts.get(1), concat);
+        Object[] code = new Object[2 * parts.size() + 2];
+        code[0] = new byte[] { (byte) NEW, (byte) (builder >> 8), (byte) builder, (byte) DUP, (byte) INVOKESPECIAL,
+                (byte) (builderInit >> 8), (byte) builderInit };
+        int maxStack = 2;
+        int i = 1;
+        for (Code part : parts) {
+            code[i++] = part;
+            code[i++] = instruction(INVOKEVIRTUAL, append);
+            maxStack = Math.max(maxStack, 1 + part.maxStack);
+        }
+        code[i] = instruction(INVOKEVIRTUAL, builderToString);
+        return new Code(maxStack, code);
+    }
+
+    public Object paren(Object value) {
+        return value;
+    }
+
+    // The conditions leave 0 or 1 on the stack, as String.equals and String.contains return them
+    public Object equalsCond(Object left, Object right) {
+        return binary(code(left), code(right), equals);
+    }
+
+    public Object containsCond(Object needle, Object haystack) {
+        return binary(code(haystack), code(needle), contains);
+    }
+
+    public Object ifElse(Object cond, Object then, Object otherwise) {
+        Code c = (Code) cond;
+        Code t = code(then);
+        Code e = code(otherwise);
+        int maxStack = Math.max(c.maxStack, Math.max(t.maxStack, e.maxStack));
+        if (3 + t.length + 3 <= Short.MAX_VALUE && 3 + e.length <= Short.MAX_VALUE)
+            return new Code(maxStack, c, instruction(IFEQ, 3 + t.length + 3), t, instruction(GOTO, 3 + e.length), e);
+        // Branches too long for a 16 bit offset jump with goto_w, ifne skips the first one
+        return new Code(maxStack, c, instruction(IFNE, 3 + 5), wideGoto(5 + t.length + 5), t, wideGoto(5 + e.length), e);
+    }
+
+    public Object call(String name, List<Object> args) {
+        String descriptor = descriptor(args.size());
+        called.add(name + descriptor);
+        Object[] parts = new Object[args.size() + 1];
+        int maxStack = 1;
+        int i = 0;
+        for (Object arg : args) {
+            Code code = code(arg);
+            parts[i] = code;
+            maxStack = Math.max(maxStack, i + code.maxStack);
+            i++;
+        }
+        parts[i] = instruction(INVOKESTATIC, methodRef(CLASS_NAME, name, descriptor));
+        return new Code(maxStack, parts);
+    }
+
+    public Object function(String name, List<String> params, Object body) {
+        if (params.size() > 255)
+            throw new Error("Too many parameters in function " + name);
+        Map<String, Integer> slots = new HashMap<String, Integer>();
+        for (int i = 0; i < params.size(); i++)
+            slots.put(params.get(i), i);
+        Code code = code(body);
+        byte[] bytes = layout(new Code(code.maxStack, code, new byte[] { (byte) ARETURN }), slots, name);
+        return new Method(name, descriptor(params.size()), bytes, code.maxStack, params.size());
+    }
+
+    public void begin() {
+    }
+
+    public void declare(Object function) {
+        Method method = (Method) function;
+        if (!declared.add(method.name + method.descriptor))
+            throw new Error("Function " + method.name + " is declared twice");
+        methods.add(method);
+    }
+
+    // Each call is printed with System.out.println(call). The prints are collected until they fill
+    // a method, which is then laid out
+    public void print(Object call) {
+        Code code = code(call);
+        Code print = new Code(1 + code.maxStack, instruction(GETSTATIC, systemOut), code, instruction(INVOKEVIRTUAL, println));
+        if (!prints.isEmpty() && printsLength + print.length > MAX_CALLS_CODE)
+            layoutPrints();
+        prints.add(print);
+        printsLength += print.length;
+    }
+
+    public void end() throws Exception {
+        for (String function : called) {
+            if (!declared.contains(function))
+                throw new Error("Call of undeclared function " + function.substring(0, function.indexOf('(')));
+        }
+
+        // Main prints the calls itself if they fit in one method, otherwise it calls the methods
+        // that each print a part of them
+        layoutPrints();
+        if (callParts.size() == 1)
+            methods.add(new Method("main", "([Ljava/lang/String;)V", callParts.get(0).code, callParts.get(0).maxStack, 1));
+        else {
+            ByteArrayOutputStream main = new ByteArrayOutputStream();
+            for (Method part : callParts)
+                main.write(instruction(INVOKESTATIC, methodRef(CLASS_NAME, part.name, part.descriptor)));
+            main.write(RETURN);
+            if (main.size() > MAX_CODE)
+                throw new Error("Too many calls in the program");
+            methods.add(new Method("main", "([Ljava/lang/String;)V", main.toByteArray(), 0, 1));
+            methods.addAll(callParts);
+        }
+
+        Files.createDirectories(directory);
+        Files.write(directory.resolve(CLASS_NAME + ".class"), classFile(methods));
+    }
+
+    // Lay out the prints collected so far as the next calls$N method
+    private void layoutPrints() {
+        int maxStack = 0;
+        Object[] code = new Object[prints.size() + 1];
+        for (int i = 0; i < prints.size(); i++) {
+            code[i] = prints.get(i);
+            maxStack = Math.max(maxStack, prints.get(i).maxStack);
+        }
+        code[prints.size()] = new byte[] { (byte) RETURN };
+        String name = "calls$" + callParts.size();
+        callParts.add(new Method(name, "()V", layout(new Code(maxStack, code), new HashMap<String, Integer>(), name), maxStack, 0));
+        prints.clear();
+        printsLength = 0;
+    }
+
+    private byte[] classFile(List<Method> methods) throws IOException {
+        int thisClass = classRef(CLASS_NAME);
+        int superClass = classRef("java/lang/Object");
+        int codeName = utf8("Code");
+        int[] names = new int[methods.size()];
+        int[] descriptors = new int[methods.size()];
+        for (int i = 0; i < methods.size(); i++) {
+            names[i] = utf8(methods.get(i).name);
+            descriptors[i] = utf8(methods.get(i).descriptor);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xcafebabe);
+        out.writeShort(0);
+        out.writeShort(VERSION);
+        out.writeShort(poolCount);
+        poolBytes.writeTo(out);
+        // public super, no interfaces or fields
+        out.writeShort(0x0021);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(methods.size());
+        for (int i = 0; i < methods.size(); i++) {
+            Method method = methods.get(i);
+            // public static
+            out.writeShort(0x0009);
+            out.writeShort(names[i]);
+            out.writeShort(descriptors[i]);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + method.code.length);
+            out.writeShort(method.maxStack);
+            out.writeShort(method.maxLocals);
+            out.writeInt(method.code.length);
+            out.write(method.code);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+        out.writeShort(0);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // Lay out the code of a method in one array, walking the pieces with an explicit stack since
+    // they nest as deep as the expressions of the program
+    private static byte[] layout(Code code, Map<String, Integer> slots, String method) {
+        if (code.length > MAX_CODE)
+            throw new Error("Function " + method + " is too large");
+        byte[] bytes = new byte[code.length];
+        int length = 0;
+        ArrayDeque<Object> pending = new ArrayDeque<Object>();
+        pending.push(code);
+        while (!pending.isEmpty()) {
+            Object part = pending.pop();
+            if (part instanceof Code) {
+                Object[] parts = ((Code) part).parts;
+                for (int i = parts.length - 1; i >= 0; i--)
+                    pending.push(parts[i]);
+            }
+            else if (part instanceof byte[]) {
+                byte[] b = (byte[]) part;
+                System.arraycopy(b, 0, bytes, length, b.length);
+                length += b.length;
+            }
+            else {
+                Integer slot = slots.get(((Param) part).name);
+                if (slot == null)
+                    throw new Error("Unknown identifier " + ((Param) part).name + " in function " + method);
+                bytes[length++] = (byte) ALOAD;
+                bytes[length++] = (byte) (int) slot;
+            }
+        }
+        return bytes;
+    }
+
+    private static Code binary(Code left, Code right, int method) {
+        return new Code(Math.max(left.maxStack, 1 + right.maxStack), left, right, instruction(INVOKEVIRTUAL, method));
+    }
+
+    // Descriptor of a function with the given number of parameters
+    private static String descriptor(int params) {
+        StringBuilder descriptor = new StringBuilder("(");
+        for (int i = 0; i < params; i++)
+            descriptor.append("Ljava/lang/String;");
+        return descriptor.append(")Ljava/lang/String;").toString();
+    }
+
+    // An instruction with a 16 bit operand
+    private static byte[] instruction(int opcode, int operand) {
+        return new byte[] { (byte) opcode, (byte) (operand >> 8), (byte) operand };
+    }
+
+    private static byte[] wideGoto(int offset) {
+        return new byte[] { (byte) GOTO_W, (byte) (offset >> 24), (byte) (offset >> 16), (byte) (offset >> 8), (byte) offset };
+    }
+
+    private int utf8(String text) {
+        Integer index = poolEntries.get("U" + text);
+        if (index != null)
+            return index;
+        try {
+            pool.writeByte(1);
+            pool.writeUTF(text);
+        }
+        catch (IOException e) {
+            throw new Error("String too long for a class file: " + e.getMessage());
+        }
+        return add("U" + text);
+    }
+
+    private int classRef(String name) {
+        return constant("C" + name, 7, utf8(name));
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return constant("N" + name + " " + descriptor, 12, utf8(name), utf8(descriptor));
+    }
+
+    private int methodRef(String owner, String name, String descriptor) {
+        return constant("M" + owner + "." + name + descriptor, 10, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    private int fieldRef(String owner, String name, String descriptor) {
+        return constant("F" + owner + "." + name + descriptor, 9, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    // An entry made of a tag and references to other entries (which are added first)
+    private int constant(String key, int tag, int... references) {
+        Integer index = poolEntries.get(key);
+        if (index != null)
+            return index;
+        try {
+            pool.writeByte(tag);
+            for (int reference : references)
+                pool.writeShort(reference);
+        }
+        catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return add(key);
+    }
+
+    private int add(String key) {
+        if (poolCount == 65535)
+            throw new Error("Too many constants for a class file");
+        poolEntries.put(key, poolCount);
+        return poolCount++;
+    }
+}
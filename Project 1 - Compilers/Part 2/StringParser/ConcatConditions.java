@@ -0,0 +1,134 @@
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Helper methods of the generated class for conditions over concatenations. A helper takes the
+ * parts of both sides as separate arguments and compares them a segment at a time with
+ * regionMatches, so the concatenations are never built. There is one helper per condition and
+ * number of parts on each side, generated the first time a condition of that shape is translated
+ */
+
+final class ConcatConditions {
+    // Most parts both sides of a condition may have together, a method takes at most 255
+    // arguments and the match helper takes four ints besides the parts
+    static final int MAX_PARTS = 250;
+
+    // Source of the helpers used so far, in the order they were first needed
+    private final Set<String> helpers = new LinkedHashSet<String>();
+
+    // Name of the helper for left = right, with left and right made of the given number of parts
+    String equalsHelper(int left, int right) {
+        match(left, right);
+        String name = "eq$" + left + "$" + right;
+        helpers.add("\tprivate static boolean " + name + "(" + params("a", left) + ", " + params("b", right) + ") {\n" +
+                "\t\tif (" + lengths("a", left) + " != " + lengths("b", right) + ")\n" +
+                "\t\t\treturn false;\n" +
+                "\t\treturn match$" + left + "$" + right + "(0, 0, " + args("a", left) + ", 0, 0, " + args("b", right) + ");\n" +
+                "\t}\n");
+        return name;
+    }
+
+    // Name of the helper for needle in haystack. The needle starts with its first non-empty part,
+    // which is looked for in each part of the haystack with indexOf. Near the end of a part, where
+    // the needle would run on into the next parts, its first char is looked for instead
+    String containsHelper(int needle, int haystack) {
+        match(needle, haystack);
+        String name = "in$" + needle + "$" + haystack;
+        helpers.add("\tprivate static boolean " + name + "(" + params("a", needle) + ", " + params("b", haystack) + ") {\n" +
+                "\t\tint i = 0;\n" +
+                "\t\twhile (i < " + needle + " && part$" + needle + "(i, " + args("a", needle) + ").isEmpty())\n" +
+                "\t\t\ti++;\n" +
+                "\t\tif (i == " + needle + ")\n" +
+                "\t\t\treturn true;\n" +
+                "\t\tString a = part$" + needle + "(i, " + args("a", needle) + ");\n" +
+                "\t\tfor (int k = 0; k < " + haystack + "; k++) {\n" +
+                "\t\t\tString b = part$" + haystack + "(k, " + args("b", haystack) + ");\n" +
+                "\t\t\tint tail = Math.max(0, b.length() - a.length() + 1);\n" +
+                "\t\t\tfor (int y = b.indexOf(a); y >= 0 && y < tail; y = b.indexOf(a, y + 1)) {\n" +
+                "\t\t\t\tif (match$" + needle + "$" + haystack + "(i, 0, " + args("a", needle) + ", k, y, " + args("b", haystack) + "))\n" +
+                "\t\t\t\t\treturn true;\n" +
+                "\t\t\t}\n" +
+                "\t\t\tfor (int y = b.indexOf(a.charAt(0), tail); y >= 0; y = b.indexOf(a.charAt(0), y + 1)) {\n" +
+                "\t\t\t\tif (match$" + needle + "$" + haystack + "(i, 0, " + args("a", needle) + ", k, y, " + args("b", haystack) + "))\n" +
+                "\t\t\t\t\treturn true;\n" +
+                "\t\t\t}\n" +
+                "\t\t}\n" +
+                "\t\treturn false;\n" +
+                "\t}\n");
+        return name;
+    }
+
+    // Source of all helpers used, one after the other
+    String source() {
+        StringBuilder source = new StringBuilder();
+        for (String helper : helpers)
+            source.append("\n").append(helper);
+        return source.toString();
+    }
+
+    // Whether the parts of a starting at part i, char x appear in b starting at part k, char y.
+    // Segments that are whole parts on both sides are compared with equals, which is faster than
+    // regionMatches
+    private void match(int a, int b) {
+        part(a);
+        part(b);
+        helpers.add("\tprivate static boolean match$" + a + "$" + b + "(int i, int x, " + params("a", a) + ", int k, int y, " + params("b", b) + ") {\n" +
+                "\t\tString a = part$" + a + "(i, " + args("a", a) + ");\n" +
+                "\t\tString b = part$" + b + "(k, " + args("b", b) + ");\n" +
+                "\t\twhile (true) {\n" +
+                "\t\t\twhile (x == a.length()) {\n" +
+                "\t\t\t\tif (++i == " + a + ")\n" +
+                "\t\t\t\t\treturn true;\n" +
+                "\t\t\t\ta = part$" + a + "(i, " + args("a", a) + ");\n" +
+                "\t\t\t\tx = 0;\n" +
+                "\t\t\t}\n" +
+                "\t\t\twhile (y == b.length()) {\n" +
+                "\t\t\t\tif (++k == " + b + ")\n" +
+                "\t\t\t\t\treturn false;\n" +
+                "\t\t\t\tb = part$" + b + "(k, " + args("b", b) + ");\n" +
+                "\t\t\t\ty = 0;\n" +
+                "\t\t\t}\n" +
+                "\t\t\tint n = Math.min(a.length() - x, b.length() - y);\n" +
+                "\t\t\tif (x == 0 && y == 0 && n == a.length() && n == b.length() ? !a.equals(b) : !a.regionMatches(x, b, y, n))\n" +
+                "\t\t\t\treturn false;\n" +
+                "\t\t\tx += n;\n" +
+                "\t\t\ty += n;\n" +
+                "\t\t}\n" +
+                "\t}\n");
+    }
+
+    // Part i of n parts
+    private void part(int n) {
+        StringBuilder cases = new StringBuilder();
+        for (int i = 0; i < n - 1; i++)
+            cases.append("\t\t\tcase ").append(i).append(":\n\t\t\t\treturn p").append(i).append(";\n");
+        helpers.add("\tprivate static String part$" + n + "(int i, " + params("p", n) + ") {\n" +
+                "\t\tswitch (i) {\n" +
+                cases +
+                "\t\t\tdefault:\n" +
+                "\t\t\t\treturn p" + (n - 1) + ";\n" +
+                "\t\t}\n" +
+                "\t}\n");
+    }
+
+    private static String params(String prefix, int n) {
+        StringBuilder params = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            params.append(i > 0 ? ", " : "").append("String ").append(prefix).append(i);
+        return params.toString();
+    }
+
+    private static String args(String prefix, int n) {
+        StringBuilder args = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            args.append(i > 0 ? ", " : "").append(prefix).append(i);
+        return args.toString();
+    }
+
+    private static String lengths(String prefix, int n) {
+        StringBuilder lengths = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            lengths.append(i > 0 ? " + " : "(long) ").append(prefix).append(i).append(".length()");
+        return lengths.toString();
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates the constant parts of the program while it is translated and passes the rest on to
+ * another backend. Concatenations and conditions of literals become one literal, and a call of a
+ * function whose body is a literal becomes that literal when its arguments are literals too. Such
+ * a function has to be declared before the call, so calls in main always see every function
+ */
+
+class FoldingBackend implements Backend {
+    // A string whose value is known at translation time
+    private static final class Constant {
+        final String value;
+
+        Constant(String value) {
+            this.value = value;
+        }
+    }
+
+    // A condition whose value is known at translation time
+    private static final Object TRUE = new Object();
+    private static final Object FALSE = new Object();
+
+    private final Backend next;
+    // Values of the functions whose bodies are constants, by name and number of parameters
+    private final Map<String, String> constantFunctions = new HashMap<String, String>();
+
+    FoldingBackend(Backend next) {
+        this.next = next;
+    }
+
+    private static String key(String name, int params) {
+        return name + "/" + params;
+    }
+
+    // The value of the next backend for a value of this one
+    private Object unfold(Object value) {
+        return value instanceof Constant ? next.literal(((Constant) value).value) : value;
+    }
+
+    private List<Object> unfold(List<Object> values) {
+        List<Object> unfolded = new ArrayList<Object>(values.size());
+        for (Object value : values)
+            unfolded.add(unfold(value));
+        return unfolded;
+    }
+
+    public Object literal(String text) {
+        return new Constant(text);
+    }
+
+    public Object param(String name) {
+        return next.param(name);
+    }
+
+    public Object concat(Object left, Object right) {
+        if (left instanceof Constant && right instanceof Constant)
+            return new Constant(((Constant) left).value + ((Constant) right).value);
+        return next.concat(unfold(left), unfold(right));
+    }
+
+    public Object paren(Object value) {
+        return value instanceof Constant ? value : next.paren(value);
+    }
+
+    public Object equalsCond(Object left, Object right) {
+        if (left instanceof Constant && right instanceof Constant)
+            return ((Constant) left).value.equals(((Constant) right).value) ? TRUE : FALSE;
+        return next.equalsCond(unfold(left), unfold(right));
+    }
+
+    public Object containsCond(Object needle, Object haystack) {
+        if (needle instanceof Constant && haystack instanceof Constant)
+            return ((Constant) haystack).value.contains(((Constant) needle).value) ? TRUE : FALSE;
+        return next.containsCond(unfold(needle), unfold(haystack));
+    }
+
+    // A constant condition picks its branch, the other one is dropped
+    public Object ifElse(Object cond, Object then, Object otherwise) {
+        if (cond == TRUE)
+            return then;
+        if (cond == FALSE)
+            return otherwise;
+        return next.ifElse(cond, unfold(then), unfold(otherwise));
+    }
+
+    public Object call(String name, List<Object> args) {
+        String value = constantFunctions.get(key(name, args.size()));
+        if (value != null) {
+            boolean constantArgs = true;
+            for (Object arg : args)
+                constantArgs &= arg instanceof Constant;
+            // A call with other arguments still runs, they might not terminate
+            if (constantArgs)
+                return new Constant(value);
+        }
+        return next.call(name, unfold(args));
+    }
+
+    public Object function(String name, List<String> params, Object body) {
+        if (body instanceof Constant)
+            constantFunctions.put(key(name, params.size()), ((Constant) body).value);
+        return next.function(name, params, unfold(body));
+    }
+
+    public void begin() throws Exception {
+        next.begin();
+    }
+
+    public void declare(Object function) throws Exception {
+        next.declare(function);
+    }
+
+    public void print(Object call) throws Exception {
+        next.print(unfold(call));
+    }
+
+    public void end() throws Exception {
+        next.end();
+    }
+}
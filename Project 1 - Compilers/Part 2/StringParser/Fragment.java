@@ -0,0 +1,51 @@
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+
+/**
+ * Piece of the translated program, made of strings and other fragments. Joining fragments does not
+ * copy their text, the text is written out once after the whole program has been parsed
+ */
+
+final class Fragment {
+    // Strings and Fragments, in output order
+    private final Object[] parts;
+
+    private Fragment(Object[] parts) {
+        this.parts = parts;
+    }
+
+    static Fragment of(Object... parts) {
+        return new Fragment(parts);
+    }
+
+    // Write the text of the fragment. The nested fragments are walked with an explicit stack, since
+    // they nest as deep as the expressions of the program
+    void writeTo(Writer out) throws IOException {
+        ArrayDeque<Object> pending = new ArrayDeque<Object>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            Object part = pending.pop();
+            if (part instanceof Fragment) {
+                Object[] parts = ((Fragment) part).parts;
+                for (int i = parts.length - 1; i >= 0; i--)
+                    pending.push(parts[i]);
+            }
+            else
+                out.write((String) part);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringWriter text = new StringWriter();
+        try {
+            writeTo(text);
+        }
+        catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,72 @@
+import java.util.Arrays;
+
+/**
+ * Symbol table of the identifiers the scanner has seen. Each distinct identifier gets an id, in
+ * the order they first appear, and one String that is shared by all its occurrences. Identifiers
+ * are looked up straight from the scanner's buffer, so an identifier seen before allocates nothing
+ */
+
+final class IdentifierTable {
+    // Names by id
+    private String[] names = new String[64];
+    private int count;
+    // Open addressing hash table of id + 1 (0 for an empty slot), its length a power of two
+    private int[] slots = new int[128];
+
+    // Id of the identifier in text[start, start + length), added if it is new
+    int intern(char[] text, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++)
+            hash = 31 * hash + text[i];
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (id < 0)
+                return add(slot, new String(text, start, length));
+            if (matches(names[id], text, start, length))
+                return id;
+        }
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    // Number of distinct identifiers
+    int size() {
+        return count;
+    }
+
+    private static boolean matches(String name, char[] text, int start, int length) {
+        if (name.length() != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != text[start + i])
+                return false;
+        }
+        return true;
+    }
+
+    private int add(int slot, String name) {
+        if (count == names.length)
+            names = Arrays.copyOf(names, count * 2);
+        names[count] = name;
+        slots[slot] = ++count;
+        // Keep the table at most half full
+        if (count * 2 > slots.length)
+            rehash();
+        return count - 1;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < count; id++) {
+            // String.hashCode is the same hash intern computes
+            int slot = names[id].hashCode() & mask;
+            while (slots[slot] != 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = id + 1;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+/**
+ * Times a program from its text to its printed results, once interpreted and once compiled with
+ * javac and run, in the same JVM after warming up. For short programs the time of javac is most of
+ * the time of the compiled run
+ */
+
+class InterpretBench {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURE_ROUNDS = 10;
+
+    // A few functions and calls, like a template filled in once
+    private static final String SMALL =
+            "name() { \"John\" }\n" +
+            "surname() { \"Doe\" }\n" +
+            "fullname(first, sep, last) { first + sep + last }\n" +
+            "greet(who) { if (\"Doe\" in who) (\"Dear \" + who) else (\"Hi \" + who) }\n" +
+            "\ngreet(fullname(name(), \" \", surname()))\ngreet(\"Jane\")\n";
+
+    // Counts down from "1" repeated twelve times, and builds a tree of that depth
+    private static final String TREE;
+
+    static {
+        StringBuilder tree = new StringBuilder("dec(n) { ");
+        for (int i = 12; i > 0; i--)
+            tree.append("if (n = \"").append("1".repeat(i)).append("\") \"").append("1".repeat(i - 1)).append("\" else ");
+        tree.append("\"\" }\n");
+        tree.append("tree(n) { if (n = \"\") \"<leaf/>\" else (\"<node>\" + tree(dec(n)) + tree(dec(n)) + \"</node>\") }\n");
+        TREE = tree.append("\ntree(\"").append("1".repeat(12)).append("\")\n").toString();
+    }
+
+    private static long interpret(String program) throws Exception {
+        long start = System.nanoTime();
+        new Parser(new Scanner(new StringReader(program)), new FoldingBackend(new Interpreter())).parse();
+        return System.nanoTime() - start;
+    }
+
+    private static long compile(JavaRunner runner, String program) throws Exception {
+        long start = System.nanoTime();
+        StringWriter source = new StringWriter();
+        new Parser(new Scanner(new StringReader(program)), new FoldingBackend(new JavaBackend(source))).parse();
+        runner.run(source.toString());
+        return System.nanoTime() - start;
+    }
+
+    private static void run(JavaRunner runner, String name, String program) throws Exception {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            interpret(program);
+            compile(runner, program);
+        }
+        long interpreted = Long.MAX_VALUE;
+        long compiled = Long.MAX_VALUE;
+        for (int round = 0; round < MEASURE_ROUNDS; round++) {
+            interpreted = Math.min(interpreted, interpret(program));
+            compiled = Math.min(compiled, compile(runner, program));
+        }
+        System.err.printf("%-6s interpreted %9.2f ms  compiled %9.2f ms%n", name, interpreted / 1e6, compiled / 1e6);
+    }
+
+    public static void main(String[] args) throws Exception {
+        JavaRunner runner = new JavaRunner();
+        // The results of the programs are thrown away
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            run(runner, "small", SMALL);
+            run(runner, "tree", TREE);
+        }
+        finally {
+            System.setOut(out);
+        }
+    }
+}
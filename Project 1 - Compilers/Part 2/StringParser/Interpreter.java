@@ -0,0 +1,350 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the program without translating it, as a tree of nodes that evaluate themselves. Every call
+ * is linked to its function when it is parsed, through a table of the functions by name and number
+ * of parameters, and a parameter to its slot in the array of arguments when its function is
+ * complete, so running the program does no lookups. The result of each top level call is printed
+ * as soon as the call is parsed. With a memo size, each function keeps the results of its latest
+ * calls, like the functions generated with --memo
+ */
+
+class Interpreter implements Backend {
+    private static final String NL = System.lineSeparator();
+    // Arguments of the top level calls, which are not in a function
+    private static final String[] NO_ARGS = new String[0];
+
+    private abstract static class Node {
+        abstract String eval(String[] args);
+    }
+
+    private abstract static class Cond {
+        abstract boolean test(String[] args);
+    }
+
+    private static final class Literal extends Node {
+        final String text;
+
+        Literal(String text) {
+            this.text = text;
+        }
+
+        String eval(String[] args) {
+            return text;
+        }
+    }
+
+    private static final class Param extends Node {
+        final String name;
+        // Set when the enclosing function is complete
+        int slot = -1;
+
+        Param(String name) {
+            this.name = name;
+        }
+
+        String eval(String[] args) {
+            return args[slot];
+        }
+    }
+
+    // A chain of + that is still being parsed. The parser passes every value on once, so the next
+    // operand is added to the chain in place instead of copying it
+    private static final class Chain {
+        final List<Node> parts = new ArrayList<Node>();
+    }
+
+    // The parts are joined into one string of the right length
+    private static final class Concat extends Node {
+        final Node[] parts;
+
+        Concat(Node[] parts) {
+            this.parts = parts;
+        }
+
+        String eval(String[] args) {
+            String[] values = new String[parts.length];
+            int length = 0;
+            for (int i = 0; i < parts.length; i++) {
+                values[i] = parts[i].eval(args);
+                length += values[i].length();
+            }
+            StringBuilder text = new StringBuilder(length);
+            for (String value : values)
+                text.append(value);
+            return text.toString();
+        }
+    }
+
+    private static final class Equals extends Cond {
+        final Node left;
+        final Node right;
+
+        Equals(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        boolean test(String[] args) {
+            return left.eval(args).equals(right.eval(args));
+        }
+    }
+
+    private static final class Contains extends Cond {
+        final Node needle;
+        final Node haystack;
+
+        Contains(Node needle, Node haystack) {
+            this.needle = needle;
+            this.haystack = haystack;
+        }
+
+        boolean test(String[] args) {
+            return haystack.eval(args).contains(needle.eval(args));
+        }
+    }
+
+    private static final class If extends Node {
+        final Cond cond;
+        final Node then;
+        final Node otherwise;
+
+        If(Cond cond, Node then, Node otherwise) {
+            this.cond = cond;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        String eval(String[] args) {
+            return cond.test(args) ? then.eval(args) : otherwise.eval(args);
+        }
+    }
+
+    private static final class Call extends Node {
+        final Function function;
+        final Node[] args;
+
+        Call(Function function, Node[] args) {
+            this.function = function;
+            this.args = args;
+        }
+
+        // The arguments are evaluated into a new array, which is the slots of the parameters
+        String eval(String[] args) {
+            String[] values = new String[this.args.length];
+            for (int i = 0; i < values.length; i++)
+                values[i] = this.args[i].eval(args);
+            return function.call(values);
+        }
+    }
+
+    // Entry of the function table. It is made when the function is first called or declared,
+    // whichever comes first, and gets its body when it is declared
+    private static final class Function {
+        final String name;
+        final int params;
+        Node body;
+        Memo memo;
+
+        Function(String name, int params) {
+            this.name = name;
+            this.params = params;
+        }
+
+        String call(String[] args) {
+            if (memo == null)
+                return body.eval(args);
+            Object key = args.length == 1 ? args[0] : Arrays.asList(args);
+            String value = memo.get(key);
+            if (value != null)
+                memo.hits++;
+            else {
+                memo.misses++;
+                value = body.eval(args);
+                memo.put(key, value);
+            }
+            return value;
+        }
+    }
+
+    // Memo of a function: its latest results by arguments, the least recently used are evicted
+    private static final class Memo extends LinkedHashMap<Object, String> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        long hits;
+        long misses;
+        long evictions;
+
+        Memo(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, String> eldest) {
+            if (size() <= capacity)
+                return false;
+            evictions++;
+            return true;
+        }
+    }
+
+    // Results each function keeps, 0 to keep none
+    private final int memoSize;
+    // Functions by name and number of parameters, in the order they are first called or declared
+    private final Map<String, Function> table = new HashMap<String, Function>();
+    private final List<Function> functions = new ArrayList<Function>();
+    // In the order they are declared, for the report of the memos
+    private final List<Function> declared = new ArrayList<Function>();
+    // Parameters of the function being parsed
+    private final List<Param> params = new ArrayList<Param>();
+
+    private Writer out;
+    // Number of functions at the start of the table that are known to be declared
+    private int checked;
+
+    Interpreter() {
+        this(0);
+    }
+
+    Interpreter(int memoSize) {
+        this.memoSize = memoSize;
+    }
+
+    private static Node node(Object value) {
+        if (!(value instanceof Chain))
+            return (Node) value;
+        List<Node> parts = ((Chain) value).parts;
+        return new Concat(parts.toArray(new Node[parts.size()]));
+    }
+
+    private Function function(String name, int params) {
+        String key = name + "/" + params;
+        Function function = table.get(key);
+        if (function == null) {
+            function = new Function(name, params);
+            table.put(key, function);
+            functions.add(function);
+        }
+        return function;
+    }
+
+    public Object literal(String text) {
+        return new Literal(text);
+    }
+
+    public Object param(String name) {
+        Param param = new Param(name);
+        params.add(param);
+        return param;
+    }
+
+    public Object concat(Object left, Object right) {
+        Chain chain;
+        if (left instanceof Chain)
+            chain = (Chain) left;
+        else {
+            chain = new Chain();
+            chain.parts.add((Node) left);
+        }
+        if (right instanceof Chain)
+            chain.parts.addAll(((Chain) right).parts);
+        else
+            chain.parts.add((Node) right);
+        return chain;
+    }
+
+    public Object paren(Object value) {
+        return value;
+    }
+
+    public Object equalsCond(Object left, Object right) {
+        return new Equals(node(left), node(right));
+    }
+
+    public Object containsCond(Object needle, Object haystack) {
+        return new Contains(node(needle), node(haystack));
+    }
+
+    public Object ifElse(Object cond, Object then, Object otherwise) {
+        return new If((Cond) cond, node(then), node(otherwise));
+    }
+
+    public Object call(String name, List<Object> args) {
+        Node[] nodes = new Node[args.size()];
+        int i = 0;
+        for (Object arg : args)
+            nodes[i++] = node(arg);
+        return new Call(function(name, nodes.length), nodes);
+    }
+
+    public Object function(String name, List<String> params, Object body) {
+        for (Param param : this.params) {
+            param.slot = params.indexOf(param.name);
+            if (param.slot < 0)
+                throw new Error("Unknown identifier " + param.name + " in function " + name);
+        }
+        this.params.clear();
+        Function function = function(name, params.size());
+        if (function.body != null)
+            throw new Error("Function " + name + " is declared twice");
+        function.body = node(body);
+        if (memoSize > 0)
+            function.memo = new Memo(memoSize);
+        declared.add(function);
+        return function;
+    }
+
+    public void begin() {
+        out = new BufferedWriter(new OutputStreamWriter(System.out));
+    }
+
+    public void declare(Object function) {
+    }
+
+    // Calls come after all functions, so the functions not checked yet are those first called by
+    // this call or by the ones before it, and the functions all of them call. Each one must have
+    // been declared by now
+    public void print(Object call) throws Exception {
+        for (; checked < functions.size(); checked++) {
+            if (functions.get(checked).body == null) {
+                finish();
+                throw new Error("Call of undeclared function " + functions.get(checked).name);
+            }
+        }
+        String value;
+        try {
+            value = node(call).eval(NO_ARGS);
+        }
+        catch (RuntimeException | Error e) {
+            finish();
+            throw e;
+        }
+        out.write(value);
+        out.write(NL);
+    }
+
+    public void end() throws Exception {
+        finish();
+    }
+
+    // Writes out what has been printed and reports how often the memos were used
+    private void finish() throws IOException {
+        out.flush();
+        if (memoSize == 0)
+            return;
+        for (Function function : declared)
+            System.err.println("memo " + function.name + "/" + function.params + ": " + function.memo.hits + " hits, "
+                    + function.memo.misses + " misses, " + function.memo.evictions + " evictions, " + function.memo.size() + " kept");
+    }
+}
@@ -0,0 +1,293 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Intermediate representation of a program, for the optimizer. Nodes are immutable trees and are
+ * equal when they have the same structure, so repeated expressions can be found with a map.
+ * Concatenations are flat, a node has all parts of a chain of +, which is what nests deepest in
+ * generated programs; conditions only appear as the test of an if
+ */
+
+final class Ir {
+    private Ir() {
+    }
+
+    abstract static class Node {
+        // Structural hash, computed the first time it is needed (0 until then)
+        private int hash;
+
+        // Number of nodes of the tree
+        abstract int size();
+
+        abstract int computeHash();
+
+        @Override
+        public final int hashCode() {
+            if (hash == 0)
+                hash = computeHash() | 1;
+            return hash;
+        }
+    }
+
+    static final class Literal extends Node {
+        final String text;
+
+        Literal(String text) {
+            this.text = text;
+        }
+
+        int size() {
+            return 1;
+        }
+
+        int computeHash() {
+            return text.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Literal && ((Literal) other).text.equals(text);
+        }
+    }
+
+    static final class Param extends Node {
+        final String name;
+
+        Param(String name) {
+            this.name = name;
+        }
+
+        int size() {
+            return 1;
+        }
+
+        int computeHash() {
+            return 31 * name.hashCode() + 1;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Param && ((Param) other).name.equals(name);
+        }
+    }
+
+    // Two or more parts, none of them a concatenation
+    static final class Concat extends Node {
+        final List<Node> parts;
+        private final int size;
+
+        Concat(List<Node> parts) {
+            this.parts = parts;
+            int size = 1;
+            for (Node part : parts)
+                size += part.size();
+            this.size = size;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int computeHash() {
+            return parts.hashCode() + 2;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other == this || other instanceof Concat && other.hashCode() == hashCode() && ((Concat) other).parts.equals(parts);
+        }
+    }
+
+    enum Test {
+        // left = right
+        EQUALS,
+        // left in right
+        CONTAINS
+    }
+
+    static final class If extends Node {
+        final Test test;
+        final Node left;
+        final Node right;
+        final Node then;
+        final Node otherwise;
+        private final int size;
+
+        If(Test test, Node left, Node right, Node then, Node otherwise) {
+            this.test = test;
+            this.left = left;
+            this.right = right;
+            this.then = then;
+            this.otherwise = otherwise;
+            this.size = 1 + left.size() + right.size() + then.size() + otherwise.size();
+        }
+
+        // Whether the test is the same as the one of another if
+        boolean sameTest(If other) {
+            return other.test == test && other.left.equals(left) && other.right.equals(right);
+        }
+
+        int size() {
+            return size;
+        }
+
+        int computeHash() {
+            return (((test.hashCode() * 31 + left.hashCode()) * 31 + right.hashCode()) * 31 + then.hashCode()) * 31 + otherwise.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other == this)
+                return true;
+            if (!(other instanceof If) || other.hashCode() != hashCode())
+                return false;
+            If that = (If) other;
+            return sameTest(that) && that.then.equals(then) && that.otherwise.equals(otherwise);
+        }
+    }
+
+    static final class Call extends Node {
+        final String name;
+        final List<Node> args;
+        private final int size;
+
+        Call(String name, List<Node> args) {
+            this.name = name;
+            this.args = args;
+            int size = 1;
+            for (Node arg : args)
+                size += arg.size();
+            this.size = size;
+        }
+
+        // Name and number of parameters of the function called
+        String key() {
+            return Ir.key(name, args.size());
+        }
+
+        int size() {
+            return size;
+        }
+
+        int computeHash() {
+            return name.hashCode() * 31 + args.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other == this)
+                return true;
+            if (!(other instanceof Call) || other.hashCode() != hashCode())
+                return false;
+            return ((Call) other).name.equals(name) && ((Call) other).args.equals(args);
+        }
+    }
+
+    static final class Function {
+        final String name;
+        final List<String> params;
+        final Node body;
+
+        Function(String name, List<String> params, Node body) {
+            this.name = name;
+            this.params = params;
+            this.body = body;
+        }
+
+        String key() {
+            return Ir.key(name, params.size());
+        }
+    }
+
+    static String key(String name, int params) {
+        return name + "/" + params;
+    }
+
+    // Concatenation of parts, which may be concatenations themselves. Adjacent literals are joined
+    // and empty ones dropped, so the result may be a single part or a literal
+    static Node concat(List<Node> parts) {
+        List<Node> flat = new ArrayList<Node>(parts.size());
+        for (Node part : parts) {
+            if (part instanceof Concat) {
+                for (Node inner : ((Concat) part).parts)
+                    append(flat, inner);
+            }
+            else
+                append(flat, part);
+        }
+        if (flat.isEmpty())
+            return new Literal("");
+        return flat.size() == 1 ? flat.get(0) : new Concat(flat);
+    }
+
+    private static void append(List<Node> parts, Node part) {
+        if (part instanceof Literal) {
+            String text = ((Literal) part).text;
+            if (text.isEmpty())
+                return;
+            Node last = parts.isEmpty() ? null : parts.get(parts.size() - 1);
+            if (last instanceof Literal) {
+                parts.set(parts.size() - 1, new Literal(((Literal) last).text + text));
+                return;
+            }
+        }
+        parts.add(part);
+    }
+
+    // The node with each of its children replaced by the rewrite of the child, or the node itself
+    // when the rewrite leaves all of them as they are
+    static Node rebuild(Node node, UnaryOperator<Node> rewrite) {
+        if (node instanceof Concat) {
+            List<Node> parts = ((Concat) node).parts;
+            List<Node> rewritten = rewrite(parts, rewrite);
+            return rewritten == parts ? node : concat(rewritten);
+        }
+        if (node instanceof If) {
+            If branch = (If) node;
+            Node left = rewrite.apply(branch.left);
+            Node right = rewrite.apply(branch.right);
+            Node then = rewrite.apply(branch.then);
+            Node otherwise = rewrite.apply(branch.otherwise);
+            if (left == branch.left && right == branch.right && then == branch.then && otherwise == branch.otherwise)
+                return node;
+            return new If(branch.test, left, right, then, otherwise);
+        }
+        if (node instanceof Call) {
+            List<Node> args = ((Call) node).args;
+            List<Node> rewritten = rewrite(args, rewrite);
+            return rewritten == args ? node : new Call(((Call) node).name, rewritten);
+        }
+        return node;
+    }
+
+    private static List<Node> rewrite(List<Node> nodes, UnaryOperator<Node> rewrite) {
+        List<Node> rewritten = null;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = rewrite.apply(nodes.get(i));
+            if (node != nodes.get(i) && rewritten == null)
+                rewritten = new ArrayList<Node>(nodes.subList(0, i));
+            if (rewritten != null)
+                rewritten.add(node);
+        }
+        return rewritten == null ? nodes : rewritten;
+    }
+
+    // Whether evaluating the node calls no function, so it always terminates
+    static boolean callFree(Node node) {
+        if (node instanceof Call)
+            return false;
+        if (node instanceof Concat) {
+            for (Node part : ((Concat) node).parts) {
+                if (!callFree(part))
+                    return false;
+            }
+            return true;
+        }
+        if (node instanceof If) {
+            If branch = (If) node;
+            return callFree(branch.left) && callFree(branch.right) && callFree(branch.then) && callFree(branch.otherwise);
+        }
+        return true;
+    }
+}
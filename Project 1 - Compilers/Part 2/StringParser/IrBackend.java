@@ -0,0 +1,146 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the IR of the program, optimizes it once the program is complete and only then passes it
+ * on to another backend, which writes it out. Unlike the other backends it keeps the whole program
+ * until the end, the passes need to see every function and call
+ */
+
+class IrBackend implements Backend {
+    // A test, until the if it belongs to
+    private static final class Cond {
+        final Ir.Test test;
+        final Ir.Node left;
+        final Ir.Node right;
+
+        Cond(Ir.Test test, Ir.Node left, Ir.Node right) {
+            this.test = test;
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    // A chain of + that is still being parsed. The parser passes every value on once, so the next
+    // operand is added to the chain in place instead of copying it
+    private static final class Chain {
+        final List<Ir.Node> parts = new ArrayList<Ir.Node>();
+    }
+
+    private final Backend next;
+    private final List<Ir.Function> functions = new ArrayList<Ir.Function>();
+    private final List<Ir.Node> prints = new ArrayList<Ir.Node>();
+
+    IrBackend(Backend next) {
+        this.next = next;
+    }
+
+    private static Ir.Node node(Object value) {
+        return value instanceof Chain ? Ir.concat(((Chain) value).parts) : (Ir.Node) value;
+    }
+
+    private static List<Ir.Node> nodes(List<Object> values) {
+        List<Ir.Node> nodes = new ArrayList<Ir.Node>(values.size());
+        for (Object value : values)
+            nodes.add(node(value));
+        return nodes;
+    }
+
+    public Object literal(String text) {
+        return new Ir.Literal(text);
+    }
+
+    public Object param(String name) {
+        return new Ir.Param(name);
+    }
+
+    public Object concat(Object left, Object right) {
+        Chain chain;
+        if (left instanceof Chain)
+            chain = (Chain) left;
+        else {
+            chain = new Chain();
+            chain.parts.add((Ir.Node) left);
+        }
+        if (right instanceof Chain)
+            chain.parts.addAll(((Chain) right).parts);
+        else
+            chain.parts.add((Ir.Node) right);
+        return chain;
+    }
+
+    // The IR is a tree, every backend groups an if..else followed by + the same way without them
+    public Object paren(Object value) {
+        return value;
+    }
+
+    public Object equalsCond(Object left, Object right) {
+        return new Cond(Ir.Test.EQUALS, node(left), node(right));
+    }
+
+    public Object containsCond(Object needle, Object haystack) {
+        return new Cond(Ir.Test.CONTAINS, node(needle), node(haystack));
+    }
+
+    public Object ifElse(Object cond, Object then, Object otherwise) {
+        Cond test = (Cond) cond;
+        return new Ir.If(test.test, test.left, test.right, node(then), node(otherwise));
+    }
+
+    public Object call(String name, List<Object> args) {
+        return new Ir.Call(name, nodes(args));
+    }
+
+    public Object function(String name, List<String> params, Object body) {
+        return new Ir.Function(name, params, node(body));
+    }
+
+    public void begin() {
+    }
+
+    public void declare(Object function) {
+        functions.add((Ir.Function) function);
+    }
+
+    public void print(Object call) {
+        prints.add(node(call));
+    }
+
+    public void end() throws Exception {
+        Optimizer optimizer = new Optimizer(functions, prints);
+        optimizer.run();
+        next.begin();
+        for (Ir.Function function : optimizer.functions())
+            next.declare(next.function(function.name, function.params, emit(function.body)));
+        for (Ir.Node print : optimizer.prints())
+            next.print(emit(print));
+        next.end();
+    }
+
+    // The value of the next backend for a node
+    private Object emit(Ir.Node node) {
+        if (node instanceof Ir.Literal)
+            return next.literal(((Ir.Literal) node).text);
+        if (node instanceof Ir.Param)
+            return next.param(((Ir.Param) node).name);
+        if (node instanceof Ir.Concat) {
+            List<Ir.Node> parts = ((Ir.Concat) node).parts;
+            Object value = emit(parts.get(0));
+            for (int i = 1; i < parts.size(); i++)
+                value = next.concat(value, emit(parts.get(i)));
+            return value;
+        }
+        if (node instanceof Ir.If) {
+            Ir.If branch = (Ir.If) node;
+            Object left = emit(branch.left);
+            Object right = emit(branch.right);
+            Object cond = branch.test == Ir.Test.EQUALS ? next.equalsCond(left, right) : next.containsCond(left, right);
+            return next.ifElse(cond, emit(branch.then), emit(branch.otherwise));
+        }
+        Ir.Call call = (Ir.Call) node;
+        List<Object> args = new ArrayList<Object>(call.args.size());
+        for (Ir.Node arg : call.args)
+            args.add(emit(arg));
+        return next.call(call.name, args);
+    }
+}
@@ -0,0 +1,475 @@
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Translates the program into the source of a Java class, written to System.out (or to another
+ * writer). Values are fragments of the source text. With a memo size, each function keeps the
+ * results of its latest calls, up to that many, and main reports how often they were reused.
+ * Conditions over concatenations pass the parts to helpers that compare them in place. With ropes,
+ * the functions pass Ropes instead of Strings, trees of the concatenated pieces that are only
+ * joined into one String when they are printed (or compared). In parallel, main evaluates all
+ * calls at once in a pool of threads, and prints their results in order
+ */
+
+class JavaBackend implements Backend {
+    // Line separator of the lines that are printed with println
+    private static final String NL = System.lineSeparator();
+
+    // Null to write to System.out, looked up when the program begins (Main redirects it after
+    // creating the parser)
+    private final Writer out;
+    // Results each function keeps, 0 to keep none
+    private final int memoSize;
+    private final boolean ropes;
+    private final boolean parallel;
+    // Type of the values of the generated program
+    private final String type;
+    private boolean memoized;
+    // Functions with memos, written when main starts
+    private final List<Wrapper> wrappers = new ArrayList<Wrapper>();
+
+    private final ConcatConditions conditions = new ConcatConditions();
+
+    private Writer writer;
+    // Whether main has been started
+    private boolean printing;
+
+    JavaBackend() {
+        this(null);
+    }
+
+    JavaBackend(Writer out) {
+        this(out, 0);
+    }
+
+    JavaBackend(Writer out, int memoSize) {
+        this(out, memoSize, false);
+    }
+
+    JavaBackend(Writer out, int memoSize, boolean ropes) {
+        this(out, memoSize, ropes, false);
+    }
+
+    JavaBackend(Writer out, int memoSize, boolean ropes, boolean parallel) {
+        this.out = out;
+        this.memoSize = memoSize;
+        this.ropes = ropes;
+        this.parallel = parallel;
+        this.type = ropes ? "Rope" : "String";
+    }
+
+    public Object literal(String text) {
+        if (ropes)
+            return Fragment.of("Rope.of(\"", text, "\")");
+        return Fragment.of("\"", text, "\"");
+    }
+
+    public Object param(String name) {
+        return Fragment.of(name);
+    }
+
+    // A concatenation keeps its operands besides its text, for the conditions
+    private static final class Concat {
+        // Null with ropes, where the text is made from all parts at once
+        final Fragment text;
+        final Object left;
+        final Object right;
+        // Operands that are not concatenations themselves
+        final int parts;
+
+        Concat(Fragment text, Object left, Object right) {
+            this.text = text;
+            this.left = left;
+            this.right = right;
+            this.parts = partCount(left) + partCount(right);
+        }
+    }
+
+    private static int partCount(Object value) {
+        return value instanceof Concat ? ((Concat) value).parts : 1;
+    }
+
+    // Text of a value. Ropes are joined by one call with all parts, nested calls would be as deep
+    // as the concatenation
+    private static Object text(Object value) {
+        if (!(value instanceof Concat))
+            return value;
+        if (((Concat) value).text == null)
+            return Fragment.of("Rope.concat(", join(parts(value), ", "), ")");
+        return ((Concat) value).text;
+    }
+
+    private static List<Object> text(List<Object> values) {
+        List<Object> text = new ArrayList<Object>(values.size());
+        for (Object value : values)
+            text.add(text(value));
+        return text;
+    }
+
+    // Texts of the operands of a concatenation, in order. Concatenations nest as deep as the
+    // program, so they are walked with an explicit stack
+    private static List<Object> parts(Object value) {
+        List<Object> parts = new ArrayList<Object>();
+        ArrayDeque<Object> pending = new ArrayDeque<Object>();
+        pending.push(value);
+        while (!pending.isEmpty()) {
+            Object part = pending.pop();
+            if (part instanceof Concat) {
+                pending.push(((Concat) part).right);
+                pending.push(((Concat) part).left);
+            }
+            else
+                parts.add(part);
+        }
+        return parts;
+    }
+
+    public Object concat(Object left, Object right) {
+        if (ropes)
+            return new Concat(null, left, right);
+        return new Concat(Fragment.of(text(left), " + ", text(right)), left, right);
+    }
+
+    // Concatenation is associative, so one in parentheses still has the parts of its operands
+    public Object paren(Object value) {
+        if (ropes && value instanceof Concat)
+            return value;
+        Fragment text = Fragment.of("(", text(value), ")");
+        if (value instanceof Concat)
+            return new Concat(text, ((Concat) value).left, ((Concat) value).right);
+        return text;
+    }
+
+    // Whether a condition over these values goes through a helper
+    private static boolean helped(Object left, Object right) {
+        int parts = partCount(left) + partCount(right);
+        return parts > 2 && parts <= ConcatConditions.MAX_PARTS;
+    }
+
+    public Object equalsCond(Object left, Object right) {
+        if (ropes)
+            return Fragment.of("Rope.eq(", text(left), ", ", text(right), ")");
+        if (helped(left, right))
+            return Fragment.of(conditions.equalsHelper(partCount(left), partCount(right)), "(",
+                    join(parts(left), ", "), ", ", join(parts(right), ", "), ")");
+        return Fragment.of("(", text(left), ").equals(", text(right), ")");
+    }
+
+    public Object containsCond(Object needle, Object haystack) {
+        if (ropes)
+            return Fragment.of("Rope.in(", text(needle), ", ", text(haystack), ")");
+        if (helped(needle, haystack))
+            return Fragment.of(conditions.containsHelper(partCount(needle), partCount(haystack)), "(",
+                    join(parts(needle), ", "), ", ", join(parts(haystack), ", "), ")");
+        return Fragment.of("(", text(haystack), ").contains(", text(needle), ")");
+    }
+
+    // In parentheses, so that as in the grammar an if..else followed by + is the left operand of the
+    // +, where Java would make the rest of the concatenation part of the else branch
+    public Object ifElse(Object cond, Object then, Object otherwise) {
+        return Fragment.of("(", cond, " ? ", text(then), " : ", text(otherwise), ")");
+    }
+
+    public Object call(String name, List<Object> args) {
+        return Fragment.of(name, "(", join(text(args), ", "), ")");
+    }
+
+    // A function with a memo. Its text is made once the names of all functions are known, the
+    // method that runs the body is named apart from them
+    private static final class Wrapper {
+        final String name;
+        final int arity;
+        final Function<String, Fragment> text;
+
+        Wrapper(String name, int arity, Function<String, Fragment> text) {
+            this.name = name;
+            this.arity = arity;
+            this.text = text;
+        }
+    }
+
+    public Object function(String name, List<String> params, Object body) {
+        body = text(body);
+        List<Object> declarations = new ArrayList<Object>();
+        for (String param : params)
+            declarations.add(type + " " + param);
+        if (memoSize == 0)
+            return Fragment.of(name, "(", join(declarations, ", "), ") {\n\t\treturn ", body, ";\n\t}");
+
+        // The function looks its arguments up in its memo and only runs the body, renamed to
+        // name$compute (with $ appended when the program has a function of that name), when they are
+        // not there. Recursive calls go through the memo too. The names the wrapper uses besides the
+        // parameters are made different from all of them, since a parameter would hide a local, a
+        // field or a package of the same name
+        memoized = true;
+        Object computed = body;
+        List<Object> args = new ArrayList<Object>(params);
+        String memo = unused(name + "$memo" + params.size(), params);
+        String key = unused("key", params);
+        String value = unused("value", params);
+        Object keyOf = params.size() == 1 ? params.get(0) : Fragment.of(memo, ".key(", join(args, ", "), ")");
+        if (parallel) {
+            // The calls of main share the memo, it is only used while holding its lock. Two calls
+            // may compute the same value at once, the last one is kept
+            return new Wrapper(name, params.size(), compute -> Fragment.of(name, "(", join(declarations, ", "), ") {\n",
+                    "\t\tObject ", key, " = ", keyOf, ";\n",
+                    "\t\t", type, " ", value, ";\n",
+                    "\t\tsynchronized (", memo, ") {\n",
+                    "\t\t\t", value, " = (", type, ") ", memo, ".get(", key, ");\n",
+                    "\t\t\tif (", value, " != null)\n",
+                    "\t\t\t\t", memo, ".hits++;\n",
+                    "\t\t\telse\n",
+                    "\t\t\t\t", memo, ".misses++;\n",
+                    "\t\t}\n",
+                    "\t\tif (", value, " == null) {\n",
+                    "\t\t\t", value, " = ", compute, "(", join(args, ", "), ");\n",
+                    "\t\t\tsynchronized (", memo, ") {\n",
+                    "\t\t\t\t", memo, ".put(", key, ", ", value, ");\n",
+                    "\t\t\t}\n",
+                    "\t\t}\n",
+                    "\t\treturn ", value, ";\n",
+                    "\t}\n\n",
+                    "\tprivate static final Memo ", memo, " = new Memo(\"", name, "/", Integer.toString(params.size()), "\", ", Integer.toString(memoSize), ");\n\n",
+                    "\tprivate static ", type, " ", compute, "(", join(declarations, ", "), ") {\n\t\treturn ", computed, ";\n\t}"));
+        }
+        return new Wrapper(name, params.size(), compute -> Fragment.of(name, "(", join(declarations, ", "), ") {\n",
+                "\t\tObject ", key, " = ", keyOf, ";\n",
+                "\t\t", type, " ", value, " = (", type, ") ", memo, ".get(", key, ");\n",
+                "\t\tif (", value, " != null)\n",
+                "\t\t\t", memo, ".hits++;\n",
+                "\t\telse {\n",
+                "\t\t\t", memo, ".misses++;\n",
+                "\t\t\t", value, " = ", compute, "(", join(args, ", "), ");\n",
+                "\t\t\t", memo, ".put(", key, ", ", value, ");\n",
+                "\t\t}\n",
+                "\t\treturn ", value, ";\n",
+                "\t}\n\n",
+                "\tprivate static final Memo ", memo, " = new Memo(\"", name, "/", Integer.toString(params.size()), "\", ", Integer.toString(memoSize), ");\n\n",
+                "\tprivate static ", type, " ", compute, "(", join(declarations, ", "), ") {\n\t\treturn ", computed, ";\n\t}"));
+    }
+
+    // Every function and call is written out as soon as it is complete, the functions with memos
+    // when main starts. The functions come first and main with the calls after them
+    public void begin() throws Exception {
+        writer = out != null ? out : new BufferedWriter(new OutputStreamWriter(System.out));
+        writer.write("public class Main {" + NL);
+    }
+
+    public void declare(Object function) throws Exception {
+        if (function instanceof Wrapper) {
+            wrappers.add((Wrapper) function);
+            return;
+        }
+        Fragment.of("\tpublic static ", type, " ", function, "\n" + NL).writeTo(writer);
+    }
+
+    public void print(Object call) throws Exception {
+        if (!printing) {
+            printing = true;
+            writeWrappers();
+            writer.write("\tpublic static void main(String[] args) {" + NL);
+            if (memoized)
+                writer.write("\t\ttry {" + NL);
+        }
+        String indent = memoized ? "\t\t\t" : "\t\t";
+        if (parallel)
+            Fragment.of(indent, "Parallel.submit(() -> ", text(call), ");" + NL).writeTo(writer);
+        else
+            Fragment.of(indent, "System.out.println(", text(call), ");" + NL).writeTo(writer);
+    }
+
+    // All functions are declared before the first call, so the names of the methods that run the
+    // bodies can be chosen here
+    private void writeWrappers() throws Exception {
+        Set<String> names = new HashSet<String>();
+        for (Wrapper wrapper : wrappers)
+            names.add(wrapper.name + "/" + wrapper.arity);
+        for (Wrapper wrapper : wrappers) {
+            String compute = wrapper.name + "$compute";
+            while (!names.add(compute + "/" + wrapper.arity))
+                compute += "$";
+            Fragment.of("\tpublic static ", type, " ", wrapper.text.apply(compute), "\n" + NL).writeTo(writer);
+        }
+        wrappers.clear();
+    }
+
+    public void end() throws Exception {
+        if (parallel)
+            writer.write((memoized ? "\t\t\t" : "\t\t") + "Parallel.printAll();" + NL);
+        if (memoized) {
+            writer.write("\t\t}" + NL);
+            writer.write("\t\tfinally {" + NL);
+            writer.write("\t\t\tMemo.report();" + NL);
+            writer.write("\t\t}" + NL);
+        }
+        writer.write("\t}" + NL);
+        writer.write(conditions.source());
+        if (memoized)
+            writer.write(NL + MEMO_CLASS);
+        if (ropes)
+            writer.write(NL + ROPE_CLASS);
+        if (parallel)
+            writer.write(NL + PARALLEL_CLASS);
+        writer.write("}" + NL);
+        writer.flush();
+    }
+
+    // Memo of a function: its latest results by arguments, the least recently used are evicted
+    private static final String MEMO_CLASS =
+            "\tprivate static final class Memo extends java.util.LinkedHashMap<Object, Object> {\n" +
+            "\t\tprivate static final java.util.List<Memo> ALL = new java.util.ArrayList<Memo>();\n\n" +
+            "\t\tprivate final String name;\n" +
+            "\t\tprivate final int capacity;\n" +
+            "\t\tlong hits;\n" +
+            "\t\tlong misses;\n" +
+            "\t\tlong evictions;\n\n" +
+            "\t\tMemo(String name, int capacity) {\n" +
+            "\t\t\tsuper(16, 0.75f, true);\n" +
+            "\t\t\tthis.name = name;\n" +
+            "\t\t\tthis.capacity = capacity;\n" +
+            "\t\t\tALL.add(this);\n" +
+            "\t\t}\n\n" +
+            "\t\t// Key of the arguments of a call with more than one\n" +
+            "\t\tObject key(Object... args) {\n" +
+            "\t\t\treturn java.util.Arrays.asList(args);\n" +
+            "\t\t}\n\n" +
+            "\t\t@Override\n" +
+            "\t\tprotected boolean removeEldestEntry(java.util.Map.Entry<Object, Object> eldest) {\n" +
+            "\t\t\tif (size() <= capacity)\n" +
+            "\t\t\t\treturn false;\n" +
+            "\t\t\tevictions++;\n" +
+            "\t\t\treturn true;\n" +
+            "\t\t}\n\n" +
+            "\t\tstatic void report() {\n" +
+            "\t\t\tfor (Memo memo : ALL)\n" +
+            "\t\t\t\tSystem.err.println(\"memo \" + memo.name + \": \" + memo.hits + \" hits, \" + memo.misses + \" misses, \"\n" +
+            "\t\t\t\t\t\t+ memo.evictions + \" evictions, \" + memo.size() + \" kept\");\n" +
+            "\t\t}\n" +
+            "\t}\n";
+
+    // Calls of main evaluated in a pool with a thread per core. Their results are printed in the
+    // order of the calls, each one as soon as it and the calls before it are done
+    private static final String PARALLEL_CLASS =
+            "\tprivate static final class Parallel {\n" +
+            "\t\tprivate static final java.util.concurrent.ForkJoinPool POOL =\n" +
+            "\t\t\t\tnew java.util.concurrent.ForkJoinPool(Runtime.getRuntime().availableProcessors());\n" +
+            "\t\tprivate static final java.util.List<java.util.concurrent.ForkJoinTask<?>> CALLS =\n" +
+            "\t\t\t\tnew java.util.ArrayList<java.util.concurrent.ForkJoinTask<?>>();\n\n" +
+            "\t\tstatic void submit(java.util.concurrent.Callable<?> call) {\n" +
+            "\t\t\tCALLS.add(POOL.submit(call));\n" +
+            "\t\t}\n\n" +
+            "\t\tstatic void printAll() {\n" +
+            "\t\t\ttry {\n" +
+            "\t\t\t\tfor (java.util.concurrent.ForkJoinTask<?> call : CALLS)\n" +
+            "\t\t\t\t\tSystem.out.println(call.join());\n" +
+            "\t\t\t}\n" +
+            "\t\t\tfinally {\n" +
+            "\t\t\t\tPOOL.shutdownNow();\n" +
+            "\t\t\t}\n" +
+            "\t\t}\n" +
+            "\t}\n";
+
+    // Text made of pieces joined in a binary tree. A leaf is its own flat text, a node gets its flat
+    // text the first time it is needed, built in one pass over the pieces
+    private static final String ROPE_CLASS =
+            "\tprivate static final class Rope implements CharSequence {\n" +
+            "\t\tprivate static final Rope EMPTY = new Rope(\"\");\n\n" +
+            "\t\tprivate final Rope left;\n" +
+            "\t\tprivate final Rope right;\n" +
+            "\t\tprivate final int length;\n" +
+            "\t\tprivate String flat;\n\n" +
+            "\t\tprivate Rope(String flat) {\n" +
+            "\t\t\tthis.left = null;\n" +
+            "\t\t\tthis.right = null;\n" +
+            "\t\t\tthis.length = flat.length();\n" +
+            "\t\t\tthis.flat = flat;\n" +
+            "\t\t}\n\n" +
+            "\t\tprivate Rope(Rope left, Rope right) {\n" +
+            "\t\t\tthis.left = left;\n" +
+            "\t\t\tthis.right = right;\n" +
+            "\t\t\tthis.length = left.length + right.length;\n" +
+            "\t\t}\n\n" +
+            "\t\tstatic Rope of(String text) {\n" +
+            "\t\t\treturn text.isEmpty() ? EMPTY : new Rope(text);\n" +
+            "\t\t}\n\n" +
+            "\t\tstatic Rope concat(Rope... parts) {\n" +
+            "\t\t\tRope rope = EMPTY;\n" +
+            "\t\t\tfor (Rope part : parts) {\n" +
+            "\t\t\t\tif (rope.length == 0)\n" +
+            "\t\t\t\t\trope = part;\n" +
+            "\t\t\t\telse if (part.length > 0)\n" +
+            "\t\t\t\t\trope = new Rope(rope, part);\n" +
+            "\t\t\t}\n" +
+            "\t\t\treturn rope;\n" +
+            "\t\t}\n\n" +
+            "\t\tstatic boolean eq(Rope a, Rope b) {\n" +
+            "\t\t\treturn a == b || a.length == b.length && a.toString().equals(b.toString());\n" +
+            "\t\t}\n\n" +
+            "\t\tstatic boolean in(Rope needle, Rope haystack) {\n" +
+            "\t\t\treturn needle.length <= haystack.length && haystack.toString().contains(needle.toString());\n" +
+            "\t\t}\n\n" +
+            "\t\tpublic int length() {\n" +
+            "\t\t\treturn length;\n" +
+            "\t\t}\n\n" +
+            "\t\tpublic char charAt(int index) {\n" +
+            "\t\t\treturn toString().charAt(index);\n" +
+            "\t\t}\n\n" +
+            "\t\tpublic CharSequence subSequence(int start, int end) {\n" +
+            "\t\t\treturn toString().subSequence(start, end);\n" +
+            "\t\t}\n\n" +
+            "\t\t// The tree is as deep as the recursion that built it, so it is walked with an explicit stack\n" +
+            "\t\t@Override\n" +
+            "\t\tpublic String toString() {\n" +
+            "\t\t\tif (flat == null) {\n" +
+            "\t\t\t\tStringBuilder text = new StringBuilder(length);\n" +
+            "\t\t\t\tjava.util.ArrayDeque<Rope> pending = new java.util.ArrayDeque<Rope>();\n" +
+            "\t\t\t\tpending.push(this);\n" +
+            "\t\t\t\twhile (!pending.isEmpty()) {\n" +
+            "\t\t\t\t\tRope rope = pending.pop();\n" +
+            "\t\t\t\t\tif (rope.flat != null)\n" +
+            "\t\t\t\t\t\ttext.append(rope.flat);\n" +
+            "\t\t\t\t\telse {\n" +
+            "\t\t\t\t\t\tpending.push(rope.right);\n" +
+            "\t\t\t\t\t\tpending.push(rope.left);\n" +
+            "\t\t\t\t\t}\n" +
+            "\t\t\t\t}\n" +
+            "\t\t\t\tflat = text.toString();\n" +
+            "\t\t\t}\n" +
+            "\t\t\treturn flat;\n" +
+            "\t\t}\n\n" +
+            "\t\t// Ropes are memo keys\n" +
+            "\t\t@Override\n" +
+            "\t\tpublic boolean equals(Object other) {\n" +
+            "\t\t\treturn other instanceof Rope && eq(this, (Rope) other);\n" +
+            "\t\t}\n\n" +
+            "\t\t@Override\n" +
+            "\t\tpublic int hashCode() {\n" +
+            "\t\t\treturn toString().hashCode();\n" +
+            "\t\t}\n" +
+            "\t}\n";
+
+    // The name, with $ appended until it is none of the parameters
+    private static String unused(String name, List<String> params) {
+        while (params.contains(name))
+            name += "$";
+        return name;
+    }
+
+    private static Fragment join(List<Object> parts, String separator) {
+        Object[] joined = new Object[Math.max(parts.size() * 2 - 1, 0)];
+        int i = 0;
+        for (Object part : parts) {
+            if (i > 0)
+                joined[i++] = separator;
+            joined[i++] = part;
+        }
+        return Fragment.of(joined);
+    }
+}
@@ -0,0 +1,113 @@
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles translated programs in memory and runs them in this JVM. The compiler and its file
+ * manager are created once, so every program after the first one is compiled by a warm compiler
+ */
+
+class JavaRunner {
+    // Class the translator generates
+    private static final String CLASS_NAME = "Main";
+
+    private final JavaCompiler compiler;
+    private final StandardJavaFileManager standardFiles;
+
+    JavaRunner() {
+        compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            throw new Error("No Java compiler found, --run needs a JDK");
+        standardFiles = compiler.getStandardFileManager(null, null, null);
+    }
+
+    // Compile the source of the generated class and call its main method
+    void run(String source) throws Exception {
+        compile(source).invoke(null, (Object) new String[0]);
+    }
+
+    // Compile the source of the generated class and return its main method
+    Method compile(String source) throws Exception {
+        // Class files are kept in memory instead of being written next to the sources
+        final Map<String, ByteArrayOutputStream> classes = new HashMap<String, ByteArrayOutputStream>();
+        JavaFileManager files = new ForwardingJavaFileManager<StandardJavaFileManager>(standardFiles) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, final String className,
+                                                       JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        classes.put(className, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+        List<JavaFileObject> sources = Arrays.<JavaFileObject>asList(new SourceFile(source));
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        if (!compiler.getTask(null, files, diagnostics, Arrays.asList("-proc:none"), null, sources).call()) {
+            StringBuilder message = new StringBuilder("Generated program does not compile:");
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+                message.append("\n").append(diagnostic.getMessage(null));
+            throw new Error(message.toString());
+        }
+
+        return new GeneratedClassLoader(classes).loadClass(CLASS_NAME).getMethod("main", String[].class);
+    }
+
+    private static final class SourceFile extends SimpleJavaFileObject {
+        private final String source;
+
+        SourceFile(String source) {
+            super(URI.create("string:///" + CLASS_NAME + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+    // Loads the compiled classes before asking its parent, since the generated Main has the same
+    // name as the Main of the translator
+    private static final class GeneratedClassLoader extends ClassLoader {
+        private final Map<String, ByteArrayOutputStream> classes;
+
+        GeneratedClassLoader(Map<String, ByteArrayOutputStream> classes) {
+            super(JavaRunner.class.getClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                ByteArrayOutputStream bytes = classes.get(name);
+                if (bytes == null)
+                    return super.loadClass(name, resolve);
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded == null)
+                    loaded = defineClass(name, bytes.toByteArray(), 0, bytes.size());
+                if (resolve)
+                    resolveClass(loaded);
+                return loaded;
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import java.io.FileReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java_cup.runtime.Symbol;
+
+/**
+ * Times the scanner on a program of several MB, read from memory, from a memory mapped file and
+ * through a FileReader, and counts the bytes it allocates per token
+ */
+
+class LexBench {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURE_ROUNDS = 5;
+    private static final int FUNCTIONS = 40_000;
+
+    // Functions with a few parameters each, that concatenate and compare literals and call each
+    // other, and one call of each function
+    private static String program() {
+        StringBuilder program = new StringBuilder();
+        for (int i = 0; i < FUNCTIONS; i++) {
+            program.append("function").append(i).append("(first, second, third) {\n");
+            program.append("    if (first = \"literal number ").append(i).append("\")\n");
+            program.append("        second + \"\\t\" + third\n");
+            program.append("    else if (\"needle\" in third) function").append(i / 2).append("(second, third, first)\n");
+            program.append("    else \"some longer text that is not \\\"escaped\\\" much\"\n}\n\n");
+        }
+        for (int i = 0; i < FUNCTIONS; i++)
+            program.append("function").append(i).append("(\"a\", \"b\", \"c\")\n");
+        return program.toString();
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    interface Input {
+        Reader open() throws Exception;
+    }
+
+    // Scan the whole input, returns the number of tokens
+    private static long scan(Scanner scanner) throws Exception {
+        long tokens = 0;
+        while (scanner.next_token().sym != sym.EOF)
+            tokens++;
+        return tokens;
+    }
+
+    private static void run(String name, Input input, long size) throws Exception {
+        for (int round = 0; round < WARMUP_ROUNDS; round++)
+            scan(new Scanner(input.open()));
+        long best = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        long tokens = 0;
+        int identifiers = 0;
+        for (int round = 0; round < MEASURE_ROUNDS; round++) {
+            long bytes = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            Scanner scanner = new Scanner(input.open());
+            tokens = scan(scanner);
+            best = Math.min(best, System.nanoTime() - start);
+            allocated = Math.min(allocated, THREADS.getCurrentThreadAllocatedBytes() - bytes);
+            identifiers = scanner.identifiers().size();
+        }
+        System.err.printf("%-8s %8.1f ms %8.1f MB/s %8.1f M tokens/s %6.1f bytes/token  (%d tokens, %d identifiers)%n",
+                name, best / 1e6, size / (best / 1e3), tokens / (best / 1e3), (double) allocated / tokens, tokens,
+                identifiers);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final String program = program();
+        final Path file = Files.createTempFile("lexbench", ".txt");
+        try {
+            Files.write(file, program.getBytes(StandardCharsets.UTF_8));
+            long size = Files.size(file);
+            run("memory", () -> new StringReader(program), size);
+            run("mapped", () -> new MappedReader(file), size);
+            run("reader", () -> new FileReader(file.toFile()), size);
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+}
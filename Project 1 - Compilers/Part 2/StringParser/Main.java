@@ -1,12 +1,109 @@
 import java_cup.runtime.*;
 import java.io.*;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 class Main {
+    // Results each function keeps with --memo
+    private static final int DEFAULT_MEMO_SIZE = 10000;
+
     public static void main(String[] argv) throws Exception{
-        PrintStream out = new PrintStream(new FileOutputStream("output.txt"));
+        boolean run = false;
+        boolean classFile = false;
+        int memoSize = 0;
+        boolean ropes = false;
+        boolean parallel = false;
+        boolean optimize = false;
+        boolean interpret = false;
+        List<String> files = new ArrayList<String>();
+        for (String arg : argv) {
+            if (arg.equals("--run"))
+                run = true;
+            else if (arg.equals("--class"))
+                classFile = true;
+            else if (arg.equals("--memo"))
+                memoSize = DEFAULT_MEMO_SIZE;
+            else if (arg.startsWith("--memo="))
+                memoSize = Integer.parseInt(arg.substring("--memo=".length()));
+            else if (arg.equals("--rope"))
+                ropes = true;
+            else if (arg.equals("--parallel"))
+                parallel = true;
+            else if (arg.equals("--optimize"))
+                optimize = true;
+            else if (arg.equals("--interpret"))
+                interpret = true;
+            else if ((run || interpret) && !arg.startsWith("--"))
+                files.add(arg);
+            else {
+                System.err.println("Usage: java Main [--memo[=size]] [--rope] [--parallel] [--optimize] [--class | --run [files...] | --interpret [files...]]");
+                System.exit(1);
+            }
+        }
+        if (classFile && (run || memoSize > 0 || ropes || parallel)) {
+            System.err.println("--class can not be combined with --run, --memo, --rope or --parallel");
+            System.exit(1);
+        }
+        if (interpret && (run || classFile || ropes || parallel)) {
+            System.err.println("--interpret can not be combined with --run, --class, --rope or --parallel");
+            System.exit(1);
+        }
+
+        // With --interpret the programs (from the given files, or stdin) are run without translating them
+        if (interpret) {
+            if (files.isEmpty()) {
+                System.out.println("Please type a program you want to be run:");
+                interpret(new InputStreamReader(System.in), memoSize, optimize);
+            }
+            for (String file : files)
+                interpret(new MappedReader(Paths.get(file)), memoSize, optimize);
+            return;
+        }
+        // With --run the programs (from the given files, or stdin) are compiled and run in this JVM
+        if (run) {
+            JavaRunner runner = new JavaRunner();
+            if (files.isEmpty()) {
+                System.out.println("Please type a program you want to be translated into Java:");
+                run(runner, new InputStreamReader(System.in), memoSize, ropes, parallel, optimize);
+            }
+            for (String file : files)
+                run(runner, new MappedReader(Paths.get(file)), memoSize, ropes, parallel, optimize);
+            return;
+        }
+        // With --class the program is translated straight into out/Main.class instead of Java source
         System.out.println("Please type a program you want to be translated into Java:");
-        Parser p = new Parser(new Scanner(new InputStreamReader(System.in)));
+        if (classFile) {
+            Backend backend = new ClassFileBackend(Paths.get("out"));
+            if (optimize)
+                backend = new IrBackend(backend);
+            Parser p = new Parser(new Scanner(new InputStreamReader(System.in)), new FoldingBackend(backend));
+            p.parse();
+            return;
+        }
+        PrintStream out = new PrintStream(new FileOutputStream("output.txt"));
+        Backend backend = new JavaBackend(null, memoSize, ropes, parallel);
+        if (optimize)
+            backend = new IrBackend(backend);
+        Parser p = new Parser(new Scanner(new InputStreamReader(System.in)), new FoldingBackend(backend));
         System.setOut(out);
         p.parse();
     }
+
+    private static void interpret(Reader in, int memoSize, boolean optimize) throws Exception {
+        Backend backend = new Interpreter(memoSize);
+        if (optimize)
+            backend = new IrBackend(backend);
+        new Parser(new Scanner(in), new FoldingBackend(backend)).parse();
+    }
+
+    private static void run(JavaRunner runner, Reader in, int memoSize, boolean ropes, boolean parallel, boolean optimize)
+            throws Exception {
+        StringWriter source = new StringWriter();
+        Backend backend = new JavaBackend(source, memoSize, ropes, parallel);
+        if (optimize)
+            backend = new IrBackend(backend);
+        new Parser(new Scanner(in), new FoldingBackend(backend)).parse();
+        runner.run(source.toString());
+    }
 }
@@ -0,0 +1,80 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a UTF-8 file through a memory mapping, without a stream or a lock in between. The bytes
+ * are decoded straight into the buffer of the caller (the scanner)
+ */
+
+final class MappedReader extends Reader {
+    // Bytes are copied from the mapping into a heap buffer first, the decoder only has a fast path
+    // for buffers backed by arrays
+    private static final int CHUNK_SIZE = 65536;
+
+    private final ByteBuffer mapped;
+    private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+    private boolean flushed;
+    // Second half of a surrogate pair that did not fit into the last read, -1 if none
+    private int pending = -1;
+
+    MappedReader(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        chunk.flip();
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+        if (pending >= 0) {
+            buffer[offset] = (char) pending;
+            pending = -1;
+            return 1;
+        }
+        if (flushed)
+            return -1;
+        // Refill the chunk, keeping the bytes of a character split at its end
+        if (chunk.remaining() < 4 && mapped.hasRemaining()) {
+            chunk.compact();
+            int n = Math.min(chunk.remaining(), mapped.remaining());
+            ByteBuffer slice = mapped.slice();
+            slice.limit(n);
+            chunk.put(slice);
+            mapped.position(mapped.position() + n);
+            chunk.flip();
+        }
+        CharBuffer out = CharBuffer.wrap(buffer, offset, length);
+        boolean end = !mapped.hasRemaining();
+        CoderResult result = decoder.decode(chunk, out, end);
+        if (result.isError())
+            result.throwException();
+        if (end && !chunk.hasRemaining() && !result.isOverflow())
+            flushed = decoder.flush(out).isUnderflow();
+        int read = out.position() - offset;
+        if (read == 0 && result.isOverflow()) {
+            // Only room for one char and the next character is a surrogate pair
+            char[] pair = new char[2];
+            int n = read(pair, 0, 2);
+            buffer[offset] = pair[0];
+            pending = n == 2 ? pair[1] : -1;
+            return 1;
+        }
+        return read == 0 && flushed ? -1 : read;
+    }
+
+    @Override
+    public void close() {
+    }
+}
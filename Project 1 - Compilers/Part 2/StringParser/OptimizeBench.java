@@ -0,0 +1,92 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+
+/**
+ * Runs template programs compiled with and without the optimizer. The templates build markup with
+ * small helper functions, repeat a recursive call and render in a mode that is only known at the
+ * call, which is what the passes are made for
+ */
+
+class OptimizeBench {
+    private static final int MEASURE_ROUNDS = 20;
+
+    // Counts down from N, "1" repeated sixteen times, to ""
+    private static final String N = "1".repeat(16);
+    private static final String DEC;
+
+    static {
+        StringBuilder dec = new StringBuilder("dec(n) { ");
+        for (int i = N.length(); i > 0; i--)
+            dec.append("if (n = \"").append("1".repeat(i)).append("\") \"").append("1".repeat(i - 1)).append("\" else ");
+        DEC = dec.append("\"\" }\n").toString();
+    }
+
+    // Nested lists of items, each item made by helpers that wrap their argument in tags
+    private static final String LISTS = DEC +
+            "tag(name, x) { \"<\" + name + \">\" + x + \"</\" + name + \">\" }\n" +
+            "li(x) { tag(\"li\", x) }\n" +
+            "item(n) { li(\"item \" + n) }\n" +
+            "list1(n) { if (n = \"\") \"\" else (item(n) + list1(dec(n))) }\n" +
+            "list2(n) { if (n = \"\") \"\" else (tag(\"ul\", list1(\"" + N + "\")) + list2(dec(n))) }\n" +
+            "list3(n) { if (n = \"\") \"\" else (tag(\"ul\", list2(\"" + N + "\")) + list3(dec(n))) }\n" +
+            "\nlist3(\"" + N + "\")\n";
+
+    // A binary tree, each node has two subtrees that are the same
+    private static final String TREE = DEC +
+            "tree(n) { if (n = \"\") \"<leaf/>\" else (\"<node>\" + tree(dec(n)) + tree(dec(n)) + \"</node>\") }\n" +
+            "forest(n) { tree(n) + \" \" + tree(n) }\n" +
+            "\nforest(\"" + N + "\")\n";
+
+    // A table rendered in the mode its caller asks for
+    private static final String MODES = DEC +
+            "emph(mode, x) { if (mode = \"html\") (\"<em>\" + x + \"</em>\") else if (mode = \"md\") (\"*\" + x + \"*\") else x }\n" +
+            "cell(mode, x) { if (mode = \"html\") (\"<td>\" + x + \"</td>\") else (\"| \" + x + \" \") }\n" +
+            "row(mode, n) { cell(mode, emph(mode, n)) + cell(mode, n) + cell(mode, emph(mode, \"x\")) }\n" +
+            "rows(n) { if (n = \"\") \"\" else (row(\"html\", n) + row(\"md\", n) + rows(dec(n))) }\n" +
+            "table(n) { if (n = \"\") \"\" else (rows(\"" + N + "\") + table(dec(n))) }\n" +
+            "tables(n) { if (n = \"\") \"\" else (table(\"" + N + "\") + tables(dec(n))) }\n" +
+            "\ntables(\"" + N + "\")\n";
+
+    private static Method compile(JavaRunner runner, String program, boolean optimize) throws Exception {
+        StringWriter source = new StringWriter();
+        Backend backend = new JavaBackend(source);
+        if (optimize)
+            backend = new IrBackend(backend);
+        new Parser(new Scanner(new StringReader(program)), new FoldingBackend(backend)).parse();
+        return runner.compile(source.toString());
+    }
+
+    private static long time(Method main) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < MEASURE_ROUNDS; round++) {
+            long start = System.nanoTime();
+            main.invoke(null, (Object) new String[0]);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static void run(JavaRunner runner, String name, String program) throws Exception {
+        long plain = time(compile(runner, program, false));
+        long optimized = time(compile(runner, program, true));
+        System.err.printf("%-6s plain %9.2f ms  optimized %9.2f ms%n", name, plain / 1e6, optimized / 1e6);
+    }
+
+    public static void main(String[] args) throws Exception {
+        JavaRunner runner = new JavaRunner();
+        // The results of the templates are thrown away
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            run(runner, "lists", LISTS);
+            run(runner, "tree", TREE);
+            run(runner, "modes", MODES);
+        }
+        finally {
+            System.setOut(out);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Passes over the IR of a whole program: inlining of trivial functions, simplification of the ifs,
+ * elimination of expressions a body computes more than once, and removal of the functions no call
+ * of main reaches. The program may call functions that do not terminate, so no pass drops or
+ * delays an evaluation that calls a function, only work that always terminates is skipped
+ */
+
+final class Optimizer {
+    // Largest body, in nodes, of a function that is inlined
+    private static final int INLINE_SIZE = 16;
+    // Largest body of a function that is inlined where a literal argument is tested by an if of the
+    // body, the if is decided in the inlined copy
+    private static final int SPECIALIZE_SIZE = 64;
+    // Inlining continues with the functions that became trivial, for at most this many rounds
+    private static final int MAX_ROUNDS = 8;
+    // Most parameters of a method. A helper of the common expressions takes one more than the
+    // function it is made from
+    private static final int MAX_PARAMS = 255;
+
+    private List<Ir.Function> functions;
+    private List<Ir.Node> prints;
+
+    // Whether the last round of inlining inlined anything
+    private boolean inlined;
+    // Helpers made for common expressions so far
+    private int helpers;
+    // Names of the functions of the program and of the helpers, no helper is named like any of them
+    private Set<String> names;
+
+    Optimizer(List<Ir.Function> functions, List<Ir.Node> prints) {
+        this.functions = functions;
+        this.prints = prints;
+    }
+
+    List<Ir.Function> functions() {
+        return functions;
+    }
+
+    List<Ir.Node> prints() {
+        return prints;
+    }
+
+    void run() {
+        simplify();
+        for (int round = 0; round < MAX_ROUNDS && inline(); round++)
+            simplify();
+        eliminateCommon();
+        removeDead();
+    }
+
+    // Inlining
+
+    // Calls of functions with a small body that calls no function are replaced by the body
+    private boolean inline() {
+        Map<String, Ir.Function> trivial = new HashMap<String, Ir.Function>();
+        for (Ir.Function function : functions) {
+            if (function.body.size() <= SPECIALIZE_SIZE && Ir.callFree(function.body))
+                trivial.put(function.key(), function);
+        }
+        inlined = false;
+        if (trivial.isEmpty())
+            return false;
+        List<Ir.Function> inlinedFunctions = new ArrayList<Ir.Function>(functions.size());
+        for (Ir.Function function : functions)
+            inlinedFunctions.add(new Ir.Function(function.name, function.params, inline(function.body, trivial)));
+        List<Ir.Node> inlinedPrints = new ArrayList<Ir.Node>(prints.size());
+        for (Ir.Node print : prints)
+            inlinedPrints.add(inline(print, trivial));
+        functions = inlinedFunctions;
+        prints = inlinedPrints;
+        return inlined;
+    }
+
+    private Ir.Node inline(Ir.Node node, Map<String, Ir.Function> trivial) {
+        node = Ir.rebuild(node, child -> inline(child, trivial));
+        if (!(node instanceof Ir.Call))
+            return node;
+        Ir.Call call = (Ir.Call) node;
+        Ir.Function function = trivial.get(call.key());
+        if (function == null || !inlinable(function, call.args))
+            return node;
+        Map<String, Ir.Node> values = new HashMap<String, Ir.Node>();
+        for (int i = 0; i < function.params.size(); i++)
+            values.put(function.params.get(i), call.args.get(i));
+        inlined = true;
+        return substitute(function.body, values);
+    }
+
+    // An argument is evaluated where the body uses the parameter. So it may only be evaluated more
+    // than once if it is a literal or parameter, and not be dropped or made conditional if it calls
+    // a function
+    private static boolean inlinable(Ir.Function function, List<Ir.Node> args) {
+        boolean specialized = false;
+        for (int i = 0; i < args.size(); i++) {
+            Ir.Node arg = args.get(i);
+            String param = function.params.get(i);
+            if (arg instanceof Ir.Literal)
+                specialized |= tested(function.body, param);
+            else if (arg instanceof Ir.Param)
+                continue;
+            else if (Ir.callFree(arg) ? uses(function.body, param, false) > 1 : uses(function.body, param, false) != 1
+                    || uses(function.body, param, true) != 1)
+                return false;
+        }
+        return function.body.size() <= (specialized ? SPECIALIZE_SIZE : INLINE_SIZE);
+    }
+
+    // Uses of a parameter on the path through the node that uses it most. With always, only the
+    // uses outside the branches of its ifs, which are evaluated whenever the node is
+    private static int uses(Ir.Node node, String param, boolean always) {
+        if (node instanceof Ir.Param)
+            return ((Ir.Param) node).name.equals(param) ? 1 : 0;
+        int uses = 0;
+        if (node instanceof Ir.Concat) {
+            for (Ir.Node part : ((Ir.Concat) node).parts)
+                uses += uses(part, param, always);
+        }
+        else if (node instanceof Ir.Call) {
+            for (Ir.Node arg : ((Ir.Call) node).args)
+                uses += uses(arg, param, always);
+        }
+        else if (node instanceof Ir.If) {
+            Ir.If branch = (Ir.If) node;
+            uses = uses(branch.left, param, always) + uses(branch.right, param, always);
+            if (!always)
+                uses += Math.max(uses(branch.then, param, false), uses(branch.otherwise, param, false));
+        }
+        return uses;
+    }
+
+    // Whether an if of the node tests the parameter itself
+    private static boolean tested(Ir.Node node, String param) {
+        if (node instanceof Ir.Concat) {
+            for (Ir.Node part : ((Ir.Concat) node).parts) {
+                if (tested(part, param))
+                    return true;
+            }
+        }
+        else if (node instanceof Ir.Call) {
+            for (Ir.Node arg : ((Ir.Call) node).args) {
+                if (tested(arg, param))
+                    return true;
+            }
+        }
+        else if (node instanceof Ir.If) {
+            Ir.If branch = (Ir.If) node;
+            Ir.Param tested = new Ir.Param(param);
+            return branch.left.equals(tested) || branch.right.equals(tested) || tested(branch.left, param)
+                    || tested(branch.right, param) || tested(branch.then, param) || tested(branch.otherwise, param);
+        }
+        return false;
+    }
+
+    private static Ir.Node substitute(Ir.Node node, Map<String, Ir.Node> values) {
+        if (node instanceof Ir.Param) {
+            Ir.Node value = values.get(((Ir.Param) node).name);
+            return value != null ? value : node;
+        }
+        return Ir.rebuild(node, child -> substitute(child, values));
+    }
+
+    // Simplification of the ifs
+
+    private void simplify() {
+        List<Ir.Function> simplified = new ArrayList<Ir.Function>(functions.size());
+        for (Ir.Function function : functions)
+            simplified.add(new Ir.Function(function.name, function.params, simplify(function.body)));
+        functions = simplified;
+        List<Ir.Node> simplifiedPrints = new ArrayList<Ir.Node>(prints.size());
+        for (Ir.Node print : prints)
+            simplifiedPrints.add(simplify(print));
+        prints = simplifiedPrints;
+    }
+
+    private static Ir.Node simplify(Ir.Node node) {
+        if (node instanceof Ir.If)
+            return simplify((Ir.If) node);
+        return Ir.rebuild(node, Optimizer::simplify);
+    }
+
+    private static Ir.Node simplify(Ir.If branch) {
+        Ir.Node left = simplify(branch.left);
+        Ir.Node right = simplify(branch.right);
+        Boolean known = decide(branch.test, left, right);
+        if (known != null)
+            return simplify(known ? branch.then : branch.otherwise);
+
+        // In the then branch of parameter = literal the parameter has the value of the literal
+        Ir.Node then = branch.then;
+        if (branch.test == Ir.Test.EQUALS && left instanceof Ir.Param && right instanceof Ir.Literal)
+            then = substitute(then, Collections.singletonMap(((Ir.Param) left).name, right));
+        else if (branch.test == Ir.Test.EQUALS && right instanceof Ir.Param && left instanceof Ir.Literal)
+            then = substitute(then, Collections.singletonMap(((Ir.Param) right).name, left));
+        then = simplify(then);
+        Ir.Node otherwise = simplify(branch.otherwise);
+
+        // An if in a branch of an if with the same test takes the same branch
+        Ir.If simplified = new Ir.If(branch.test, left, right, then, otherwise);
+        if (then instanceof Ir.If && ((Ir.If) then).sameTest(simplified))
+            then = ((Ir.If) then).then;
+        if (otherwise instanceof Ir.If && ((Ir.If) otherwise).sameTest(simplified))
+            otherwise = ((Ir.If) otherwise).otherwise;
+        // With the same branches the test only matters when it might not terminate
+        if (then.equals(otherwise) && Ir.callFree(left) && Ir.callFree(right))
+            return then;
+        if (then == simplified.then && otherwise == simplified.otherwise)
+            return simplified;
+        return new Ir.If(branch.test, left, right, then, otherwise);
+    }
+
+    // Value of a test that is known without running the program, null if it is not
+    private static Boolean decide(Ir.Test test, Ir.Node left, Ir.Node right) {
+        if (left instanceof Ir.Literal && right instanceof Ir.Literal) {
+            String a = ((Ir.Literal) left).text;
+            String b = ((Ir.Literal) right).text;
+            return test == Ir.Test.EQUALS ? a.equals(b) : b.contains(a);
+        }
+        if (!Ir.callFree(left) || !Ir.callFree(right))
+            return null;
+        if (left.equals(right))
+            return true;
+        if (test == Ir.Test.CONTAINS && left instanceof Ir.Literal && ((Ir.Literal) left).text.isEmpty())
+            return true;
+        return null;
+    }
+
+    // Common expressions
+
+    // An expression that a body always computes, and computes more than once, is computed once
+    // and passed to a helper function with the rest of the body. The same is done in each branch
+    // of an if. Main's calls are bodies without parameters
+    private void eliminateCommon() {
+        names = new HashSet<String>();
+        for (Ir.Function function : functions)
+            names.add(function.name);
+        List<Ir.Function> eliminated = new ArrayList<Ir.Function>(functions.size());
+        for (Ir.Function function : functions) {
+            List<Ir.Function> made = new ArrayList<Ir.Function>();
+            Ir.Node body = eliminateCommon(function.body, function.params, function.name, made);
+            eliminated.add(new Ir.Function(function.name, function.params, body));
+            eliminated.addAll(made);
+        }
+        List<Ir.Node> eliminatedPrints = new ArrayList<Ir.Node>(prints.size());
+        for (Ir.Node print : prints)
+            eliminatedPrints.add(eliminateCommon(print, Collections.<String>emptyList(), "main", eliminated));
+        functions = eliminated;
+        prints = eliminatedPrints;
+    }
+
+    private Ir.Node eliminateCommon(Ir.Node region, List<String> scope, String owner, List<Ir.Function> made) {
+        while (scope.size() < MAX_PARAMS) {
+            Map<Ir.Node, int[]> counts = new LinkedHashMap<Ir.Node, int[]>();
+            count(region, true, counts);
+            // Without an expression computed twice the branches have none either, long chains of
+            // ifs are not searched again for each branch
+            if (!repeats(counts))
+                return region;
+            Ir.Node common = common(counts);
+            if (common == null)
+                break;
+            helpers++;
+            // Identifiers may contain $, so the program may use these names already
+            String name = unused(owner + "$cse" + helpers, names);
+            String temp = unused("cse$" + helpers, scope);
+            names.add(name);
+            List<String> params = new ArrayList<String>(scope);
+            params.add(temp);
+            Ir.Node body = eliminateCommon(replace(region, common, new Ir.Param(temp)), params, owner, made);
+            made.add(new Ir.Function(name, params, body));
+            List<Ir.Node> args = new ArrayList<Ir.Node>(params.size());
+            for (String param : scope)
+                args.add(new Ir.Param(param));
+            args.add(common);
+            region = new Ir.Call(name, args);
+        }
+        return eliminateInBranches(region, scope, owner, made);
+    }
+
+    private static String unused(String name, Collection<String> taken) {
+        while (taken.contains(name))
+            name += "$";
+        return name;
+    }
+
+    private Ir.Node eliminateInBranches(Ir.Node node, List<String> scope, String owner, List<Ir.Function> made) {
+        if (!(node instanceof Ir.If))
+            return Ir.rebuild(node, child -> eliminateInBranches(child, scope, owner, made));
+        Ir.If branch = (Ir.If) node;
+        Ir.Node left = eliminateInBranches(branch.left, scope, owner, made);
+        Ir.Node right = eliminateInBranches(branch.right, scope, owner, made);
+        Ir.Node then = eliminateCommon(branch.then, scope, owner, made);
+        Ir.Node otherwise = eliminateCommon(branch.otherwise, scope, owner, made);
+        if (left == branch.left && right == branch.right && then == branch.then && otherwise == branch.otherwise)
+            return node;
+        return new Ir.If(branch.test, left, right, then, otherwise);
+    }
+
+    private static boolean repeats(Map<Ir.Node, int[]> counts) {
+        for (int[] count : counts.values()) {
+            if (count[0] > 1)
+                return true;
+        }
+        return false;
+    }
+
+    // The largest concatenation or call that is computed more than once, and at least once whenever
+    // the region is evaluated, or null if there is none
+    private static Ir.Node common(Map<Ir.Node, int[]> counts) {
+        Ir.Node common = null;
+        for (Map.Entry<Ir.Node, int[]> entry : counts.entrySet()) {
+            int[] count = entry.getValue();
+            if (count[0] > 1 && count[1] > 0 && (common == null || entry.getKey().size() > common.size()))
+                common = entry.getKey();
+        }
+        return common;
+    }
+
+    // Counts every occurrence of an expression in counts[0], and those always evaluated in counts[1]
+    private static void count(Ir.Node node, boolean always, Map<Ir.Node, int[]> counts) {
+        if (node instanceof Ir.Concat || node instanceof Ir.Call) {
+            int[] count = counts.computeIfAbsent(node, key -> new int[2]);
+            count[0]++;
+            if (always)
+                count[1]++;
+        }
+        if (node instanceof Ir.Concat) {
+            for (Ir.Node part : ((Ir.Concat) node).parts)
+                count(part, always, counts);
+        }
+        else if (node instanceof Ir.Call) {
+            for (Ir.Node arg : ((Ir.Call) node).args)
+                count(arg, always, counts);
+        }
+        else if (node instanceof Ir.If) {
+            Ir.If branch = (Ir.If) node;
+            count(branch.left, always, counts);
+            count(branch.right, always, counts);
+            count(branch.then, false, counts);
+            count(branch.otherwise, false, counts);
+        }
+    }
+
+    private static Ir.Node replace(Ir.Node node, Ir.Node expression, Ir.Node by) {
+        if (node.equals(expression))
+            return by;
+        return Ir.rebuild(node, child -> replace(child, expression, by));
+    }
+
+    // Dead functions
+
+    // Only the functions that main's calls reach, directly or through other functions, are kept
+    private void removeDead() {
+        Map<String, List<Ir.Function>> byKey = new HashMap<String, List<Ir.Function>>();
+        for (Ir.Function function : functions)
+            byKey.computeIfAbsent(function.key(), key -> new ArrayList<Ir.Function>()).add(function);
+        Set<String> live = new HashSet<String>();
+        ArrayDeque<Ir.Node> pending = new ArrayDeque<Ir.Node>(prints);
+        while (!pending.isEmpty()) {
+            Ir.Node node = pending.pop();
+            if (node instanceof Ir.Concat)
+                pending.addAll(((Ir.Concat) node).parts);
+            else if (node instanceof Ir.If) {
+                Ir.If branch = (Ir.If) node;
+                pending.push(branch.left);
+                pending.push(branch.right);
+                pending.push(branch.then);
+                pending.push(branch.otherwise);
+            }
+            else if (node instanceof Ir.Call) {
+                Ir.Call call = (Ir.Call) node;
+                pending.addAll(call.args);
+                if (live.add(call.key()) && byKey.containsKey(call.key())) {
+                    for (Ir.Function function : byKey.get(call.key()))
+                        pending.push(function.body);
+                }
+            }
+        }
+        List<Ir.Function> reached = new ArrayList<Ir.Function>(functions.size());
+        for (Ir.Function function : functions) {
+            if (live.contains(function.key()))
+                reached.add(function);
+        }
+        functions = reached;
+    }
+}
@@ -0,0 +1,67 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+
+/**
+ * Runs deep recursive templates compiled with Strings and with ropes. A template appends one item
+ * to its result at every step, through nested loops of ten steps each, so a program with more
+ * loops builds a longer result one piece at a time
+ */
+
+class RopeBench {
+    private static final int MEASURE_ROUNDS = 3;
+
+    // Programs with this many nested loops, 10^loops steps
+    private static final int[] LOOPS = { 2, 3, 4, 5 };
+
+    // loop1 appends an item ten times, loop<n> runs loop<n - 1> ten times
+    private static String template(int loops) {
+        StringBuilder program = new StringBuilder();
+        program.append("dec(d) { if (d = \"9\") \"8\" else if (d = \"8\") \"7\" else if (d = \"7\") \"6\" else if (d = \"6\") \"5\"");
+        program.append(" else if (d = \"5\") \"4\" else if (d = \"4\") \"3\" else if (d = \"3\") \"2\" else if (d = \"2\") \"1\"");
+        program.append(" else if (d = \"1\") \"0\" else \"\" }\n");
+        program.append("loop1(d, acc) { if (d = \"\") acc else loop1(dec(d), acc + \"<li>\" + d + \"</li>\") }\n");
+        for (int i = 2; i <= loops; i++)
+            program.append("loop").append(i).append("(d, acc) { if (d = \"\") acc else loop").append(i)
+                    .append("(dec(d), loop").append(i - 1).append("(\"9\", acc)) }\n");
+        program.append("\nloop").append(loops).append("(\"9\", \"\")\n");
+        return program.toString();
+    }
+
+    private static Method compile(JavaRunner runner, String program, boolean ropes) throws Exception {
+        StringWriter source = new StringWriter();
+        new Parser(new Scanner(new StringReader(program)), new FoldingBackend(new JavaBackend(source, 0, ropes))).parse();
+        return runner.compile(source.toString());
+    }
+
+    private static long time(Method main) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < MEASURE_ROUNDS; round++) {
+            long start = System.nanoTime();
+            main.invoke(null, (Object) new String[0]);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws Exception {
+        JavaRunner runner = new JavaRunner();
+        // The results of the templates are thrown away
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int loops : LOOPS) {
+                String program = template(loops);
+                long strings = time(compile(runner, program, false));
+                long ropes = time(compile(runner, program, true));
+                System.err.printf("%7d steps  strings %10.2f ms  ropes %8.2f ms%n", (int) Math.pow(10, loops),
+                        strings / 1e6, ropes / 1e6);
+            }
+        }
+        finally {
+            System.setOut(out);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+/**
+ * Times the translation of programs whose function bodies nest deeper and deeper. With the text
+ * built from fragments the time per nesting level should stay about the same as the depth grows
+ */
+
+class TranslateBench {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURE_ROUNDS = 5;
+
+    // A body of nested parenthesized concatenations: ((("x" + "y") + "y") + "y") ...
+    private static String nestedParens(int depth) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < depth; i++)
+            body.append('(');
+        body.append("\"x\"");
+        for (int i = 0; i < depth; i++)
+            body.append(" + \"y\")");
+        return "f(a) { " + body + " }\n\nf(\"q\")\n";
+    }
+
+    // A body of nested conditionals: if (a = "0") a else if (a = "1") a else ...
+    private static String nestedIfs(int depth) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < depth; i++)
+            body.append("if (a = \"").append(i).append("\") a else ");
+        body.append("a");
+        return "f(a) { " + body + " }\n\nf(\"q\")\n";
+    }
+
+    private static long translate(String program) throws Exception {
+        long start = System.nanoTime();
+        new Parser(new Scanner(new StringReader(program))).parse();
+        return System.nanoTime() - start;
+    }
+
+    private static void run(String name, String[] programs, int[] depths) throws Exception {
+        // Warm up on all depths first, so the small ones are not measured before the JIT is done
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (String program : programs)
+                translate(program);
+        }
+        for (int i = 0; i < programs.length; i++) {
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < MEASURE_ROUNDS; round++)
+                best = Math.min(best, translate(programs[i]));
+            System.err.printf("%-8s depth %6d %10.2f ms %10.1f ns/level%n", name, depths[i], best / 1e6,
+                    (double) best / depths[i]);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        // The translated programs are thrown away
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            int[] depths = { 1_000, 2_000, 4_000, 8_000, 16_000, 32_000 };
+            String[] parens = new String[depths.length];
+            String[] ifs = new String[depths.length];
+            for (int i = 0; i < depths.length; i++) {
+                parens[i] = nestedParens(depths[i]);
+                ifs[i] = nestedIfs(depths[i]);
+            }
+            run("parens", parens, depths);
+            run("ifs", ifs, depths);
+        }
+        finally {
+            System.setOut(out);
+        }
+    }
+}